@@ -19,17 +19,42 @@ public interface DrawBatch {
         void delete();
     }
     
+    /**
+     * Instances created together, deleted together
+     */
+    interface InstanceGroup {
+        int size();
+        
+        void delete();
+    }
+    
     /**
      * DynamicMatrix and DynamicLight must be instances created by this draw batch
      */
     @Nullable
     Instance createInstance(Vector3ic position, Mesh mesh, @Nullable DynamicMatrix dynamicMatrix, @Nullable Matrix4fc staticMatrix, @Nullable DynamicLight light, @Nullable DynamicLight.Type lightType);
     
+    /**
+     * Creates an instance at each position, sharing the dynamic matrix, each with its own light of lightType
+     * the instance data is grown and uploaded once, instead of once per instance
+     *
+     * @param positions:      xyz of each instance
+     * @param staticMatrices: 16 floats per instance, column major, null for identity
+     */
+    @Nullable
+    InstanceGroup createInstances(int[] positions, Mesh mesh, @Nullable DynamicMatrix dynamicMatrix, @Nullable float[] staticMatrices, @Nullable DynamicLight.Type lightType);
+    
     interface InstanceBatch {
         void updateMesh(Mesh mesh);
         
         @Nullable
         Instance createInstance(Vector3ic position, @Nullable DynamicMatrix dynamicMatrix, @Nullable Matrix4fc staticMatrix, @Nullable DynamicLight light, @Nullable DynamicLight.Type lightType);
+        
+        /**
+         * See {@link DrawBatch#createInstances}
+         */
+        @Nullable
+        InstanceGroup createInstances(int[] positions, @Nullable DynamicMatrix dynamicMatrix, @Nullable float[] staticMatrices, @Nullable DynamicLight.Type lightType);
     }
     
     @Nullable
@@ -47,5 +72,12 @@ public interface DrawBatch {
     
     void setEnabled(boolean enabled);
     
+    /**
+     * Skips faces of {@link Mesh.Builder#fullBlock} meshes that are pressed against another full block instance in this batch
+     * instances are matched by their block position, with faces turned by their static matrix if it only rotates or mirrors them within their block
+     * instances with any other static matrix, or a dynamic matrix, neither hide nor are hidden by their neighbours
+     */
+    void setFaceOcclusion(boolean faceOcclusion);
+    
     boolean isEmpty();
 }
@@ -1,16 +1,75 @@
 package net.roguelogix.quartz;
 
 import com.mojang.blaze3d.vertex.PoseStack;
+import com.mojang.blaze3d.vertex.VertexConsumer;
 import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.resources.model.ModelResourceLocation;
+import net.minecraft.world.level.block.state.BlockState;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 
+import java.util.function.Consumer;
+
 @NonnullDefault
 public interface Mesh {
+    /**
+     * Build functions run on the render thread, unless the mesh was created as thread safe, or by {@link #rebuildAsync}
+     * thread safe build functions may run on several worker threads at once, so must not touch shared mutable state, such as entity model parts
+     */
     interface Builder {
         MultiBufferSource bufferSource();
         
         PoseStack matrixStack();
+        
+        /**
+         * Also builds simplified levels of detail from the mesh, draw batches switch to them by distance from the camera
+         */
+        void generateLODs();
+        
+        /**
+         * Merges adjacent coplanar quads with the same color and light, and a texture that carries on across their shared edge, into larger quads
+         * atlas sprites cant repeat, so quads that each cover a whole sprite tile dont merge
+         * which quads survive depends on the sort order and texture continuity, so a merged mesh cant be updated, see {@link Mesh#update}
+         */
+        void mergeFaces();
+        
+        /**
+         * Declares that the mesh fills its whole block, quads on each face of the block are grouped by direction
+         * so draw batches with face occlusion can skip faces pressed against another full block instance
+         * moves those quads to the end, so vertex offsets given to update count them there
+         */
+        void fullBlock();
+        
+        /**
+         * Declares that the mesh is built from this block state's model, see {@link #dependsOn(ModelResourceLocation)}
+         */
+        void dependsOn(BlockState blockState);
+        
+        /**
+         * Declares that the mesh is built from this model
+         * a resource reload only builds a mesh again if one of its declared models, or a block atlas sprite it used, changed
+         * if only sprites moved in the atlas, its UVs are remapped in place instead
+         * meshes that declare nothing, or write vertices other than through putBulkData with block atlas quads, are built again on every reload
+         */
+        void dependsOn(ModelResourceLocation model);
     }
     
     void rebuild();
+    
+    /**
+     * Runs the build function on another thread, the current geometry keeps drawing until the result is swapped in at the start of a later frame
+     * a later rebuild, of either kind, supersedes one still in progress
+     */
+    void rebuildAsync();
+    
+    /**
+     * Rewrites full detail vertices of a render type in place, starting at vertexOffset in the order they were built, only what was written is uploaded
+     * render thread only, simplified levels keep what they were built from until the next rebuild
+     * the first update after a build builds the mesh again into vertices of its own, so its not shared with identical meshes
+     * cant be used with {@link Builder#mergeFaces}, merged quads dont keep their build order
+     *
+     * @param vertexOffset: must start a primitive, vertices are written as they would be by the build function, any incomplete primitive is dropped
+     * @throws IllegalArgumentException if the render type isnt used, its vertices were welded or merged and so dont keep their build order, or the new vertices dont fit its layout
+     */
+    void update(RenderType renderType, int vertexOffset, Consumer<VertexConsumer> writer);
 }
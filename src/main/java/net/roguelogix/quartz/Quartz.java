@@ -3,6 +3,7 @@ package net.roguelogix.quartz;
 import net.minecraft.client.Minecraft;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.block.RenderShape;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraftforge.client.model.data.ModelData;
 import net.minecraftforge.eventbus.api.BusBuilder;
@@ -13,6 +14,8 @@ import org.joml.Vector3ic;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.internal.QuartzCore;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 @Mod(Quartz.modid)
@@ -26,17 +29,30 @@ public final class Quartz {
     
     public static IEventBus EVENT_BUS = BusBuilder.builder().setTrackPhases(false).build();
     
+    // a state always builds the same thing, so its build function is shared, each mesh is still its own, identical vertices are shared by the mesh manager
+    private static final Map<BlockState, Consumer<Mesh.Builder>> blockStateBuildFuncs = new ConcurrentHashMap<>();
+    
     public static Mesh createStaticMesh(BlockState blockState) {
-        return createStaticMesh(builder -> {
+        final var buildFunc = blockStateBuildFuncs.computeIfAbsent(blockState, state -> builder -> {
+            builder.dependsOn(state);
             //noinspection ConstantConditions
-            Minecraft.getInstance().getBlockRenderer().renderSingleBlock(blockState, builder.matrixStack(), builder.bufferSource(), 0, 0x00000, ModelData.EMPTY, null);
+            Minecraft.getInstance().getBlockRenderer().renderSingleBlock(state, builder.matrixStack(), builder.bufferSource(), 0, 0x00000, ModelData.EMPTY, null);
         });
+        return QuartzCore.INSTANCE.meshManager.createMesh(buildFunc, "blockstate:" + blockState, blockState.getRenderShape() == RenderShape.MODEL);
     }
     
     public static Mesh createStaticMesh(Consumer<Mesh.Builder> buildFunc) {
         return QuartzCore.INSTANCE.meshManager.createMesh(buildFunc);
     }
     
+    /**
+     * @param threadSafe: the build function can run on worker threads, in parallel with other build functions, so reloads build it faster
+     *                    otherwise its only run on the render thread, except by {@link Mesh#rebuildAsync}
+     */
+    public static Mesh createStaticMesh(Consumer<Mesh.Builder> buildFunc, boolean threadSafe) {
+        return QuartzCore.INSTANCE.meshManager.createMesh(buildFunc, null, threadSafe);
+    }
+    
     public static DrawBatch getDrawBatchForBlock(BlockPos blockPos) {
         return getDrawBatcherForSection(SectionPos.asLong(blockPos));
     }
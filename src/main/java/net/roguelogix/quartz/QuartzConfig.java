@@ -79,6 +79,27 @@ public class QuartzConfig {
         mode = Mode.Automatic;
     }
     
+    @ConfigValue(comment = "Caches built meshes on disk, so they can be loaded instead of built on the next launch\nInvalidated when mods, resource packs, or the block atlas change")
+    public final boolean meshCache;
+    
+    {
+        meshCache = false;
+    }
+    
+    @ConfigValue(comment = "Distance (in blocks) from a draw batch past which meshes with simplified levels of detail draw the first of them\nEach further level starts at twice the distance of the one before it\n0 always draws full detail", range = "[0,)")
+    public final int lodDistance;
+    
+    {
+        lodDistance = 48;
+    }
+    
+    @ConfigValue(comment = "Distance (in blocks) from a draw batch past which meshes with simplified levels of detail are drawn as flat pictures of themselves\n0 never draws them", range = "[0,)")
+    public final int impostorDistance;
+    
+    {
+        impostorDistance = 256;
+    }
+    
     @ConfigValue(advanced = ConfigValue.BoolOption.True)
     public final GLConfig GL = GLConfig.INSTANCE;
     @ConfigValue(advanced = ConfigValue.BoolOption.True)
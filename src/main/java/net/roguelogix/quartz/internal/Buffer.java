@@ -20,6 +20,7 @@ public interface Buffer {
         /**
          * @apiNote byte buffer reflects CPU side of allocation, not GPU side, does not reflect GPU writes
          *          reading is allowed
+         *          for static buffers this is a staging buffer with undefined contents, it is released at the next flush unless the allocation is locked
          *
          * @return sliced bytebuffer for this allocation only
          */
@@ -54,6 +55,7 @@ public interface Buffer {
         /**
          * Copies buffer data internally
          * CPU side only, marks range dirty for next flush
+         * static buffers copy GPU side, after uploading anything staged
          */
         void copy(int srcOffset, int dstOffset, int size);
         
@@ -77,9 +79,19 @@ public interface Buffer {
          */
         void addBufferSliceCallback(Consumer<Allocation> consumer);
         
+        /**
+         * Keeps the staging buffer of a static buffer allocation alive across flushes until unlocked
+         */
         void lock();
         
         void unlock();
+        
+        /**
+         * Reads the GPU side contents back into the CPU side of the allocation, uploading anything staged first
+         * only does anything for static buffers, their staging buffer is otherwise undefined, other buffers CPU side already has everything that was written
+         * stalls until the GPU has finished writing to the buffer
+         */
+        void download();
     }
     
     /**
@@ -103,6 +115,16 @@ public interface Buffer {
      */
     Allocation alloc(int size, int alignment);
     
+    /**
+     * Allocates a block of the buffer of at least the size specified with specified minimum alignment, only if it fits without growing the buffer
+     * Will not change OpenGL state
+     * Alignment must be a power of 2
+     *
+     * @return allocation, or null if there isnt currently space for it
+     */
+    @Nullable
+    Allocation tryAlloc(int size, int alignment);
+    
     /**
      * Resizes an allocation to a new size
      * May change OpenGL state, potentially writes to GL_ARRAY_BUFFER
@@ -126,7 +148,7 @@ public interface Buffer {
     void free(Allocation allocation);
     
     void dirtyAll();
-
+    
     /**
      * Called when the CPU side buffer is changed
      *
@@ -14,6 +14,9 @@ public class MagicNumbers {
     // 1 byte per direction per vertex per light state, so 1 * 6 * 8 * 2, but then some empty space because alignment
     public static final int DYNAMIC_LIGHT_BYTE_SIZE = 128;
     
+    // mesh vertex data is split across fixed size arenas, a mesh larger than this gets an arena of its own
+    public static final int VERTEX_ARENA_BYTE_SIZE = 16 * 1024 * 1024;
+    
     public static class GL {
         // VEC4_BYTE_SIZE + INT_BYTE_SIZE + INT_BYTE_SIZE + MATRIX_4F_BYTE_SIZE_2 == 152, padded to 256
         public static final int INSTANCE_DATA_BYTE_SIZE = 256;
@@ -120,7 +120,7 @@ public abstract class QuartzCore {
     
     public final WorldEngine worldEngine = new WorldEngine();
     public final LightEngine lightEngine = new LightEngine();
-    public final InternalMesh.Manager meshManager = new InternalMesh.Manager(allocBuffer());
+    public final InternalMesh.Manager meshManager = new InternalMesh.Manager(this::allocStaticBuffer);
     
     public WorldEngine getWorldEngine() {
         return worldEngine;
@@ -130,6 +130,13 @@ public abstract class QuartzCore {
     
     public abstract Buffer allocBuffer();
     
+    public abstract Buffer allocBuffer(int initialSize);
+    
+    /**
+     * Buffer for data that is written once and never read back, has no CPU side copy of its contents
+     */
+    public abstract Buffer allocStaticBuffer(int initialSize);
+    
     public abstract void frameStart(PoseStack pMatrixStack, float pPartialTicks, long pFinishTimeNano, boolean pDrawBlockOutline, Camera pActiveRenderInfo, GameRenderer pGameRenderer, LightTexture pLightmap, Matrix4f pProjection);
     
     /**
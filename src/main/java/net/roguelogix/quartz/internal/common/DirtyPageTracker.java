@@ -0,0 +1,152 @@
+package net.roguelogix.quartz.internal.common;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+/**
+ * Page granular dirty bitmap for CPU side buffer mirrors
+ * ranges are rounded out to whole pages, and drained as merged runs of dirty pages
+ */
+@NonnullDefault
+public class DirtyPageTracker {
+    
+    public interface RangeConsumer {
+        void accept(int offset, int size);
+    }
+    
+    private final int pageShift;
+    private int trackedSize = 0;
+    private long[] pageBits = new long[0];
+    // bounds of words that may have bits set, so draining doesnt walk the entire bitmap
+    private int minWord = Integer.MAX_VALUE;
+    private int maxWord = -1;
+    
+    /**
+     * @param pageSize: tracking granularity, rounded up to a power of two
+     */
+    public DirtyPageTracker(int pageSize) {
+        int roundedPageSize = Integer.highestOneBit(Math.max(pageSize, 1));
+        if (roundedPageSize < pageSize) {
+            roundedPageSize <<= 1;
+        }
+        pageShift = Integer.numberOfTrailingZeros(roundedPageSize);
+    }
+    
+    public int pageSize() {
+        return 1 << pageShift;
+    }
+    
+    /**
+     * Sets the size of the tracked range, existing dirty state is kept for pages that still exist
+     */
+    public void resize(int byteSize) {
+        trackedSize = byteSize;
+        final int pageCount = (int) (((long) byteSize + pageSize() - 1) >>> pageShift);
+        final int wordCount = (pageCount + 63) >>> 6;
+        if (wordCount != pageBits.length) {
+            final var newBits = new long[wordCount];
+            System.arraycopy(pageBits, 0, newBits, 0, Math.min(wordCount, pageBits.length));
+            pageBits = newBits;
+            maxWord = Math.min(maxWord, wordCount - 1);
+        }
+        if (wordCount > 0 && (pageCount & 63) != 0) {
+            // pages past the end no longer exist
+            pageBits[wordCount - 1] &= -1L >>> (64 - (pageCount & 63));
+        }
+    }
+    
+    /**
+     * @param start: first dirty byte
+     * @param end:   one past the last dirty byte
+     */
+    public void markRange(int start, int end) {
+        start = Math.max(start, 0);
+        end = Math.min(end, trackedSize);
+        if (start >= end) {
+            return;
+        }
+        final int firstPage = start >>> pageShift;
+        final int lastPage = (end - 1) >>> pageShift;
+        final int firstWord = firstPage >>> 6;
+        final int lastWord = lastPage >>> 6;
+        // shifts only use the low 6 bits, so these mask to within the word
+        final long firstMask = -1L << firstPage;
+        final long lastMask = -1L >>> (63 - (lastPage & 63));
+        if (firstWord == lastWord) {
+            pageBits[firstWord] |= firstMask & lastMask;
+        } else {
+            pageBits[firstWord] |= firstMask;
+            for (int i = firstWord + 1; i < lastWord; i++) {
+                pageBits[i] = -1L;
+            }
+            pageBits[lastWord] |= lastMask;
+        }
+        minWord = Math.min(minWord, firstWord);
+        maxWord = Math.max(maxWord, lastWord);
+    }
+    
+    public void markAll() {
+        markRange(0, trackedSize);
+    }
+    
+    public void clear() {
+        for (int i = minWord; i <= maxWord; i++) {
+            pageBits[i] = 0;
+        }
+        minWord = Integer.MAX_VALUE;
+        maxWord = -1;
+    }
+    
+    public boolean isClean() {
+        return minWord > maxWord;
+    }
+    
+    /**
+     * Feeds every dirty range to the consumer and clears the dirty state
+     * dirty ranges separated by at most mergeGap clean bytes are fed as a single range
+     *
+     * @param mergeGap: maximum clean bytes included in a range to join two dirty ones
+     */
+    public void drain(int mergeGap, RangeConsumer consumer) {
+        if (isClean()) {
+            return;
+        }
+        final int pageSize = pageSize();
+        int runStart = -1;
+        int runEnd = -1;
+        for (int word = minWord; word <= maxWord; word++) {
+            long bits = pageBits[word];
+            pageBits[word] = 0;
+            while (bits != 0) {
+                final int setBit = Long.numberOfTrailingZeros(bits);
+                // flip everything below the first set bit on, so the next zero is the end of this run
+                final long inverted = ~(bits | ((1L << setBit) - 1));
+                final int clearBit = inverted == 0 ? 64 : Long.numberOfTrailingZeros(inverted);
+                final int pageStart = (word << 6) + setBit;
+                final int pageEnd = (word << 6) + clearBit;
+                if (runEnd != -1 && (long) (pageStart - runEnd) * pageSize <= mergeGap) {
+                    runEnd = pageEnd;
+                } else {
+                    if (runEnd != -1) {
+                        emit(runStart, runEnd, consumer);
+                    }
+                    runStart = pageStart;
+                    runEnd = pageEnd;
+                }
+                bits = clearBit == 64 ? 0 : bits & (-1L << clearBit);
+            }
+        }
+        if (runEnd != -1) {
+            emit(runStart, runEnd, consumer);
+        }
+        minWord = Integer.MAX_VALUE;
+        maxWord = -1;
+    }
+    
+    private void emit(int pageStart, int pageEnd, RangeConsumer consumer) {
+        final int start = pageStart << pageShift;
+        final int end = (int) Math.min((long) pageEnd << pageShift, trackedSize);
+        if (start < end) {
+            consumer.accept(start, end - start);
+        }
+    }
+}
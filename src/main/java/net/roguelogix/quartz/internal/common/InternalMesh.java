@@ -3,12 +3,19 @@ package net.roguelogix.quartz.internal.common;
 import com.mojang.blaze3d.vertex.PoseStack;
 import com.mojang.blaze3d.vertex.VertexConsumer;
 import com.mojang.blaze3d.vertex.VertexFormat;
-import it.unimi.dsi.fastutil.objects.Object2LongArrayMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.block.model.BakedQuad;
+import net.minecraft.client.resources.model.ModelResourceLocation;
+import net.minecraft.core.Direction;
+import net.minecraft.world.level.block.state.BlockState;
 import org.joml.Vector3f;
+import net.roguelogix.phosphophyllite.threading.WorkQueue;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.Mesh;
 import net.roguelogix.quartz.internal.Buffer;
@@ -18,28 +25,49 @@ import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
-import java.util.function.Function;
+import java.util.function.IntFunction;
 
+import static net.roguelogix.quartz.internal.MagicNumbers.VERTEX_ARENA_BYTE_SIZE;
 import static net.roguelogix.quartz.internal.MagicNumbers.VERTEX_BYTE_SIZE;
 
 @NonnullDefault
 public class InternalMesh implements Mesh {
     
+    // full detail, small details dropped, bounding box
+    public static final int LOD_LEVELS = 3;
+    // primitives smaller than this along every axis are dropped from the first simplified level, about a pixel at the distance its drawn from
+    private static final float LOD_DETAIL_SIZE = 1.0f / 8.0f;
+    // block faces of full block meshes, in the order their vertices are grouped in
+    public static final Direction[] FACES = Direction.values();
+    
     public Consumer<Mesh.Builder> buildFunc;
+    // set by the manager that created this mesh, so lookups dont need to search for it
+    @Nullable
+    Manager.TrackedMesh trackedMesh;
     
     public InternalMesh(Consumer<Mesh.Builder> buildFunc) {
         this.buildFunc = buildFunc;
     }
     
-    public Object2LongArrayMap<RenderType> build(Function<Integer, ByteBuffer> bufferCreator) {
+    /**
+     * Runs the build function into CPU side vertex data, doesnt touch GL, so this is fine to call off the render thread
+     */
+    private Builder capture() {
         Builder builder = new Builder();
         buildFunc.accept(builder);
-        var buffer = bufferCreator.apply(builder.bytesRequired());
-        return builder.build(buffer);
+        builder.finishDependencies();
+        // welding and index optimisation happen here, so that is off the render thread too
+        builder.contentKey();
+        return builder;
     }
     
     @Override
@@ -47,47 +75,530 @@ public class InternalMesh implements Mesh {
         QuartzCore.INSTANCE.meshManager.buildMesh(this);
     }
     
-    private static class Builder implements Mesh.Builder, MultiBufferSource {
-        private static class Vertex {
+    @Override
+    public void rebuildAsync() {
+        QuartzCore.INSTANCE.meshManager.buildMeshAsync(this);
+    }
+    
+    @Override
+    public void update(RenderType renderType, int vertexOffset, Consumer<VertexConsumer> writer) {
+        QuartzCore.INSTANCE.meshManager.updateMesh(this, renderType, vertexOffset, writer);
+    }
+    
+    /**
+     * Vertex data ready to be written to a vertex buffer, either freshly built or loaded from the mesh cache
+     */
+    interface PackedVertices {
+        ContentKey contentKey();
+        
+        /**
+         * @return null if what the vertices were built from is unknown, so they are built again on every resource reload
+         */
+        @Nullable
+        default MeshDependencies dependencies() {
+            return null;
+        }
+        
+        default int bytesRequired() {
+            return contentKey().bytesRequired();
+        }
+        
+        /**
+         * Writes the vertex and index data to the buffer, in the same render type order as the content key, at the offsets given by {@link ContentKey#byteOffsets} and {@link ContentKey#indexByteOffsets}
+         *
+         * @param baseOffset: offset of the buffer within its vertex arena, components are aligned to their vertex size relative to the arena
+         */
+        void build(ByteBuffer masterBuffer, int baseOffset);
+    }
+    
+    private static class Builder implements Mesh.Builder, MultiBufferSource, PackedVertices {
+        
+        // VERTEX_BYTE_SIZE / INT_BYTE_SIZE
+        private static final int VERTEX_INT_SIZE = 8;
+        // quad vertex index in the second packed int
+        private static final int QUAD_VERTEX_MASK = 0x3 << 28;
+        // UVs of quads that merge must line up to well under a texel of a 16x16 sprite in a large atlas
+        private static final float MERGE_UV_TOLERANCE = 1.0f / (1 << 20);
+        // baked models are transformed by the pose, so faces may be a rounding error off the block's edge
+        private static final float BLOCK_FACE_TOLERANCE = 1.0f / (1 << 16);
+        // DefaultVertexFormat.BLOCK, which baked quads are stored in
+        private static final int VANILLA_VERTEX_INT_SIZE = 8;
+        
+        /**
+         * Writes vertices straight into the final vertex layout, so nothing is allocated per vertex
+         * vertex attributes carry over from the previous vertex, matching what a VertexConsumer user expects
+         */
+        private static class BufferBuilder implements VertexConsumer {
+            private final RenderType renderType;
+            private final boolean quadType;
+            private int[] vertexData = new int[64 * VERTEX_INT_SIZE];
+            private int vertexCount = 0;
+            // set if the vertices were welded, draw order of vertexData
+            @Nullable
+            private int[] indices;
+            
+            private float x = 0, y = 0, z = 0;
+            private float normalX = 0, normalY = 0, normalZ = 0;
+            private int rgba = -1;
+            private float texU = 0, texV = 0;
+            private int lightmapU = 0, lightmapV = 0;
+            
+            // lightmap for the entire quad is packed into every vertex of it, so its accumulated until the quad is complete
+            private int packedLightA = 0;
+            private int packedLightB = 0;
+            private final Vector3f tempNormalVec = new Vector3f();
+            private final Vector3f bulkPositionVec = new Vector3f();
+            private final Vector3f bulkNormalVec = new Vector3f();
+            
+            private boolean defaultColorSet = false;
+            private int drgba;
             
-            Vertex() {
+            // cleared as soon as a vertex doesnt fit the compact layout
+            private boolean compactable = true;
+            
+            // set by the builder, baked quad sprites are recorded to it
+            @Nullable
+            private MeshDependencies dependencies;
+            // written through the per attribute calls, so what its built from cant be known
+            private boolean untracked = false;
+            
+            private BufferBuilder(RenderType renderType) {
+                this.renderType = renderType;
+                this.quadType = renderType.mode() == VertexFormat.Mode.QUADS;
             }
             
-            Vertex(Vertex toCopy) {
-                x = toCopy.x;
-                y = toCopy.y;
-                z = toCopy.z;
-                normalX = toCopy.normalX;
-                normalY = toCopy.normalY;
-                normalZ = toCopy.normalZ;
-                rgba = toCopy.rgba;
-                texU = toCopy.texU;
-                texV = toCopy.texV;
-                lightmapU = toCopy.lightmapU;
-                lightmapV = toCopy.lightmapV;
+            /**
+             * Empty buffer for a simplified level of this one, kept in the same layout so both can be drawn from the same vertex source
+             */
+            private BufferBuilder simplifiedBuffer(int vertexCapacity) {
+                final var simplified = new BufferBuilder(renderType);
+                simplified.vertexData = new int[Math.max(vertexCapacity, 1) * VERTEX_INT_SIZE];
+                simplified.compactable = compactable;
+                return simplified;
             }
             
-            float x = 0, y = 0, z = 0;
-            float normalX = 0, normalY = 0, normalZ = 0;
-            int rgba = -1;
-            float texU = 0, texV = 0;
+            private void copyVertices(BufferBuilder source, int firstVertex, int count) {
+                System.arraycopy(source.vertexData, firstVertex * VERTEX_INT_SIZE, vertexData, vertexCount * VERTEX_INT_SIZE, count * VERTEX_INT_SIZE);
+                vertexCount += count;
+            }
             
-            int lightmapU = 0, lightmapV = 0;
-        }
-        
-        private static class BufferBuilder implements VertexConsumer {
-            Vertex currentVertex = new Vertex();
-            final LinkedList<Vertex> vertices = new LinkedList<>();
+            private boolean sameVertices(BufferBuilder other) {
+                return vertexCount == other.vertexCount && Arrays.equals(vertexData, 0, vertexCount * VERTEX_INT_SIZE, other.vertexData, 0, vertexCount * VERTEX_INT_SIZE);
+            }
             
-            private boolean defaultColorSet = false;
-            private int drgba;
+            /**
+             * @return copy without any primitive smaller than size along every axis, null if nothing would be dropped
+             */
+            @Nullable
+            private BufferBuilder withoutDetails(float size) {
+                final int primitiveLength = renderType.mode().primitiveLength;
+                final int count = vertexCount - vertexCount % primitiveLength;
+                final var data = vertexData;
+                final var simplified = simplifiedBuffer(count);
+                for (int first = 0; first < count; first += primitiveLength) {
+                    boolean visible = false;
+                    for (int axis = 0; axis < 3 && !visible; axis++) {
+                        float min = Float.POSITIVE_INFINITY;
+                        float max = Float.NEGATIVE_INFINITY;
+                        for (int i = first; i < first + primitiveLength; i++) {
+                            final float value = Float.intBitsToFloat(data[i * VERTEX_INT_SIZE + axis]);
+                            min = Math.min(min, value);
+                            max = Math.max(max, value);
+                        }
+                        visible = max - min >= size;
+                    }
+                    if (visible) {
+                        simplified.copyVertices(this, first, primitiveLength);
+                    }
+                }
+                return simplified.vertexCount == count ? null : simplified;
+            }
+            
+            /**
+             * Collapses the quads to the faces of their bounding box, each face takes the texture, color, and light of the largest quad facing the same way
+             *
+             * @return null if this isnt a quad render type, or there is nothing to collapse
+             */
+            @Nullable
+            private BufferBuilder boundingBox() {
+                final int count = vertexCount & ~0x3;
+                if (!quadType || count == 0) {
+                    return null;
+                }
+                final var data = vertexData;
+                final var boundsMin = new float[]{Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+                final var boundsMax = new float[]{Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+                for (int i = 0; i < count; i++) {
+                    for (int axis = 0; axis < 3; axis++) {
+                        final float value = Float.intBitsToFloat(data[i * VERTEX_INT_SIZE + axis]);
+                        boundsMin[axis] = Math.min(boundsMin[axis], value);
+                        boundsMax[axis] = Math.max(boundsMax[axis], value);
+                    }
+                }
+                // +x +y +z -x -y -z
+                final var faceQuads = new int[6];
+                final var faceAreas = new float[6];
+                Arrays.fill(faceQuads, -1);
+                final var normal = new int[3];
+                final var quadMin = new float[3];
+                final var quadMax = new float[3];
+                for (int first = 0; first < count; first += 4) {
+                    final int base = first * VERTEX_INT_SIZE;
+                    normal[0] = extractInt(data[base + 6], 24, 4);
+                    normal[1] = extractInt(data[base + 6], 28, 4);
+                    normal[2] = extractInt(data[base + 7], 24, 4);
+                    int normalAxis = 0;
+                    for (int axis = 1; axis < 3; axis++) {
+                        if (Math.abs(normal[axis]) > Math.abs(normal[normalAxis])) {
+                            normalAxis = axis;
+                        }
+                    }
+                    if (normal[normalAxis] == 0) {
+                        continue;
+                    }
+                    quadBounds(data, first, quadMin, quadMax);
+                    float area = 1;
+                    for (int axis = 0; axis < 3; axis++) {
+                        if (axis != normalAxis) {
+                            area *= quadMax[axis] - quadMin[axis];
+                        }
+                    }
+                    final int face = normalAxis + (normal[normalAxis] < 0 ? 3 : 0);
+                    if (area > faceAreas[face]) {
+                        faceAreas[face] = area;
+                        faceQuads[face] = first;
+                    }
+                }
+                final var simplified = simplifiedBuffer(24);
+                for (int face = 0; face < 6; face++) {
+                    final int first = faceQuads[face];
+                    if (first == -1) {
+                        continue;
+                    }
+                    final int normalAxis = face % 3;
+                    quadBounds(data, first, quadMin, quadMax);
+                    final int newBase = simplified.vertexCount * VERTEX_INT_SIZE;
+                    simplified.copyVertices(this, first, 4);
+                    // corners are pushed out to the matching corner of the box face, so the winding is kept
+                    for (int i = 0; i < 4; i++) {
+                        for (int axis = 0; axis < 3; axis++) {
+                            final int index = newBase + i * VERTEX_INT_SIZE + axis;
+                            final float value;
+                            if (axis == normalAxis) {
+                                value = face < 3 ? boundsMax[axis] : boundsMin[axis];
+                            } else {
+                                value = Float.intBitsToFloat(simplified.vertexData[index]) * 2 <= quadMin[axis] + quadMax[axis] ? boundsMin[axis] : boundsMax[axis];
+                            }
+                            simplified.vertexData[index] = Float.floatToIntBits(value);
+                        }
+                    }
+                }
+                return simplified;
+            }
+            
+            private static void quadBounds(int[] data, int firstVertex, float[] min, float[] max) {
+                Arrays.fill(min, Float.POSITIVE_INFINITY);
+                Arrays.fill(max, Float.NEGATIVE_INFINITY);
+                for (int i = firstVertex; i < firstVertex + 4; i++) {
+                    for (int axis = 0; axis < 3; axis++) {
+                        final float value = Float.intBitsToFloat(data[i * VERTEX_INT_SIZE + axis]);
+                        min[axis] = Math.min(min[axis], value);
+                        max[axis] = Math.max(max[axis], value);
+                    }
+                }
+            }
+            
+            /**
+             * Merges runs of axis aligned coplanar quads with the same color and light, whose texture carries on across their shared edge, into single quads
+             * runs are merged along one in plane axis, then the merged rows along the other, quads that cant merge are kept as they are, in their original order
+             */
+            private void mergeCoplanarQuads() {
+                final int quadCount = vertexCount / 4;
+                if (!quadType || quadCount < 2) {
+                    return;
+                }
+                // aMin, bMin, aMax, bMax of each quad, a and b are the axes after the normal axis
+                final var rects = new float[quadCount * 4];
+                // normal axis of each quad, -1 if it cant be merged
+                final var axes = new int[quadCount];
+                final var merged = new boolean[quadCount];
+                for (int quad = 0; quad < quadCount; quad++) {
+                    axes[quad] = mergeableAxis(quad, rects);
+                }
+                final var order = new int[quadCount];
+                for (int along = 0; along < 2; along++) {
+                    int count = 0;
+                    for (int quad = 0; quad < quadCount; quad++) {
+                        if (axes[quad] != -1 && !merged[quad]) {
+                            order[count++] = quad;
+                        }
+                    }
+                    final int alongAxis = along;
+                    final int acrossAxis = 1 - along;
+                    // same plane and attributes next to each other, then the same extent across, in order along
+                    IntArrays.quickSort(order, 0, count, (first, second) -> {
+                        int compare = compareMergeGroup(first, second, axes);
+                        if (compare == 0) {
+                            compare = Float.compare(rects[first * 4 + acrossAxis], rects[second * 4 + acrossAxis]);
+                        }
+                        if (compare == 0) {
+                            compare = Float.compare(rects[first * 4 + 2 + acrossAxis], rects[second * 4 + 2 + acrossAxis]);
+                        }
+                        if (compare == 0) {
+                            compare = Float.compare(rects[first * 4 + alongAxis], rects[second * 4 + alongAxis]);
+                        }
+                        return compare;
+                    });
+                    for (int i = 1, run = order[0]; i < count; i++) {
+                        final int next = order[i];
+                        if (compareMergeGroup(run, next, axes) == 0 &&
+                                rects[run * 4 + acrossAxis] == rects[next * 4 + acrossAxis] && rects[run * 4 + 2 + acrossAxis] == rects[next * 4 + 2 + acrossAxis] &&
+                                rects[run * 4 + 2 + alongAxis] == rects[next * 4 + alongAxis] && textureContinues(run, next, axes[run], rects)) {
+                            extendQuad(run, next, axes[run], alongAxis, rects);
+                            merged[next] = true;
+                        } else {
+                            run = next;
+                        }
+                    }
+                }
+                final var data = vertexData;
+                int writeQuad = 0;
+                for (int quad = 0; quad < quadCount; quad++) {
+                    if (!merged[quad]) {
+                        System.arraycopy(data, quad * 4 * VERTEX_INT_SIZE, data, writeQuad++ * 4 * VERTEX_INT_SIZE, 4 * VERTEX_INT_SIZE);
+                    }
+                }
+                // an incomplete quad is dropped by finish anyway
+                vertexCount = writeQuad * 4;
+            }
+            
+            /**
+             * @return the quad's normal axis, or -1 if it isnt an axis aligned rectangle with uniform attributes and an affine texture mapping
+             */
+            private int mergeableAxis(int quad, float[] rects) {
+                final var data = vertexData;
+                final int base = quad * 4 * VERTEX_INT_SIZE;
+                final int packedA = data[base + 6];
+                final int normalX = extractInt(packedA, 24, 4);
+                final int normalY = extractInt(packedA, 28, 4);
+                final int normalZ = extractInt(data[base + 7], 24, 4);
+                final int axis;
+                if (normalY == 0 && normalZ == 0 && normalX != 0) {
+                    axis = 0;
+                } else if (normalX == 0 && normalZ == 0 && normalY != 0) {
+                    axis = 1;
+                } else if (normalX == 0 && normalY == 0 && normalZ != 0) {
+                    axis = 2;
+                } else {
+                    return -1;
+                }
+                // corners move when merged, so every corner needs the same light
+                final int light = packedA & 0xFFF;
+                if ((packedA & 0xFFFFFF) != (light | light << 12) || (data[base + 7] & 0xFFFFFF) != (light | light << 12)) {
+                    return -1;
+                }
+                for (int vertex = 1; vertex < 4; vertex++) {
+                    final int vertexBase = base + vertex * VERTEX_INT_SIZE;
+                    // the quad vertex index is the only thing allowed to differ
+                    if (data[vertexBase + axis] != data[base + axis] || data[vertexBase + 3] != data[base + 3] || data[vertexBase + 6] != packedA ||
+                            (data[vertexBase + 7] & ~QUAD_VERTEX_MASK) != (data[base + 7] & ~QUAD_VERTEX_MASK)) {
+                        return -1;
+                    }
+                }
+                final int aAxis = (axis + 1) % 3;
+                final int bAxis = (axis + 2) % 3;
+                final float aMin = Math.min(Math.min(position(quad, 0, aAxis), position(quad, 1, aAxis)), Math.min(position(quad, 2, aAxis), position(quad, 3, aAxis)));
+                final float aMax = Math.max(Math.max(position(quad, 0, aAxis), position(quad, 1, aAxis)), Math.max(position(quad, 2, aAxis), position(quad, 3, aAxis)));
+                final float bMin = Math.min(Math.min(position(quad, 0, bAxis), position(quad, 1, bAxis)), Math.min(position(quad, 2, bAxis), position(quad, 3, bAxis)));
+                final float bMax = Math.max(Math.max(position(quad, 0, bAxis), position(quad, 1, bAxis)), Math.max(position(quad, 2, bAxis), position(quad, 3, bAxis)));
+                if (aMin == aMax || bMin == bMax) {
+                    return -1;
+                }
+                rects[quad * 4] = aMin;
+                rects[quad * 4 + 1] = bMin;
+                rects[quad * 4 + 2] = aMax;
+                rects[quad * 4 + 3] = bMax;
+                // every vertex on its own corner
+                int corners = 0;
+                for (int vertex = 0; vertex < 4; vertex++) {
+                    final float a = position(quad, vertex, aAxis);
+                    final float b = position(quad, vertex, bAxis);
+                    if ((a != aMin && a != aMax) || (b != bMin && b != bMax)) {
+                        return -1;
+                    }
+                    corners |= 1 << ((a == aMax ? 1 : 0) | (b == bMax ? 2 : 0));
+                }
+                if (corners != 0xF) {
+                    return -1;
+                }
+                // opposite corners sum to the same UV, so its the same texture scale and direction across the whole quad
+                final int corner00 = cornerVertex(quad, axis, aMin, bMin);
+                final int corner11 = cornerVertex(quad, axis, aMax, bMax);
+                final int corner01 = cornerVertex(quad, axis, aMin, bMax);
+                final int corner10 = cornerVertex(quad, axis, aMax, bMin);
+                for (int uv = 4; uv < 6; uv++) {
+                    final float sum = Float.intBitsToFloat(data[corner00 + uv]) + Float.intBitsToFloat(data[corner11 + uv]);
+                    if (Math.abs(sum - Float.intBitsToFloat(data[corner01 + uv]) - Float.intBitsToFloat(data[corner10 + uv])) > MERGE_UV_TOLERANCE) {
+                        return -1;
+                    }
+                }
+                return axis;
+            }
+            
+            /**
+             * Orders quads by everything that must match for them to merge
+             */
+            private int compareMergeGroup(int first, int second, int[] axes) {
+                int compare = Integer.compare(axes[first], axes[second]);
+                final var data = vertexData;
+                final int firstBase = first * 4 * VERTEX_INT_SIZE;
+                final int secondBase = second * 4 * VERTEX_INT_SIZE;
+                if (compare == 0) {
+                    compare = Integer.compare(data[firstBase + axes[first]], data[secondBase + axes[second]]);
+                }
+                if (compare == 0) {
+                    compare = Integer.compare(data[firstBase + 3], data[secondBase + 3]);
+                }
+                if (compare == 0) {
+                    compare = Integer.compare(data[firstBase + 6], data[secondBase + 6]);
+                }
+                if (compare == 0) {
+                    compare = Integer.compare(data[firstBase + 7] & ~QUAD_VERTEX_MASK, data[secondBase + 7] & ~QUAD_VERTEX_MASK);
+                }
+                return compare;
+            }
+            
+            /**
+             * @return if the texture mapping of the first quad, extended over the second, gives the second's UVs
+             */
+            private boolean textureContinues(int first, int second, int axis, float[] rects) {
+                final var data = vertexData;
+                final float aMin = rects[first * 4], bMin = rects[first * 4 + 1], aMax = rects[first * 4 + 2], bMax = rects[first * 4 + 3];
+                final int corner00 = cornerVertex(first, axis, aMin, bMin);
+                final int corner10 = cornerVertex(first, axis, aMax, bMin);
+                final int corner01 = cornerVertex(first, axis, aMin, bMax);
+                for (int vertex = 0; vertex < 4; vertex++) {
+                    final float a = (position(second, vertex, (axis + 1) % 3) - aMin) / (aMax - aMin);
+                    final float b = (position(second, vertex, (axis + 2) % 3) - bMin) / (bMax - bMin);
+                    final int vertexBase = (second * 4 + vertex) * VERTEX_INT_SIZE;
+                    for (int uv = 4; uv < 6; uv++) {
+                        final float origin = Float.intBitsToFloat(data[corner00 + uv]);
+                        final float expected = origin + a * (Float.intBitsToFloat(data[corner10 + uv]) - origin) + b * (Float.intBitsToFloat(data[corner01 + uv]) - origin);
+                        if (Math.abs(expected - Float.intBitsToFloat(data[vertexBase + uv])) > MERGE_UV_TOLERANCE) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+            
+            /**
+             * Moves the first quad's far corners along the axis to the second's, taking their UVs, the first quad keeps its winding
+             */
+            private void extendQuad(int first, int second, int axis, int alongAxis, float[] rects) {
+                final var data = vertexData;
+                final int positionAxis = (axis + 1 + alongAxis) % 3;
+                final int acrossPositionAxis = (axis + 2 - alongAxis) % 3;
+                final float farEdge = rects[first * 4 + 2 + alongAxis];
+                final float newFarEdge = rects[second * 4 + 2 + alongAxis];
+                for (int vertex = 0; vertex < 4; vertex++) {
+                    final int vertexBase = (first * 4 + vertex) * VERTEX_INT_SIZE;
+                    if (Float.intBitsToFloat(data[vertexBase + positionAxis]) != farEdge) {
+                        continue;
+                    }
+                    final float across = Float.intBitsToFloat(data[vertexBase + acrossPositionAxis]);
+                    final int source = alongAxis == 0 ? cornerVertex(second, axis, newFarEdge, across) : cornerVertex(second, axis, across, newFarEdge);
+                    data[vertexBase + positionAxis] = Float.floatToIntBits(newFarEdge);
+                    data[vertexBase + 4] = data[source + 4];
+                    data[vertexBase + 5] = data[source + 5];
+                }
+                rects[first * 4 + 2 + alongAxis] = newFarEdge;
+            }
+            
+            private float position(int quad, int vertex, int axis) {
+                return Float.intBitsToFloat(vertexData[(quad * 4 + vertex) * VERTEX_INT_SIZE + axis]);
+            }
+            
+            /**
+             * @return index into vertexData of the quad's vertex at that corner
+             */
+            private int cornerVertex(int quad, int axis, float a, float b) {
+                for (int vertex = 0; vertex < 4; vertex++) {
+                    if (position(quad, vertex, (axis + 1) % 3) == a && position(quad, vertex, (axis + 2) % 3) == b) {
+                        return (quad * 4 + vertex) * VERTEX_INT_SIZE;
+                    }
+                }
+                throw new IllegalStateException("No vertex at quad corner");
+            }
+            
+            /**
+             * Moves quads on each face of the block, facing out of it, to the end, grouped by direction in {@link Direction} order, other quads keep their order
+             *
+             * @return vertex count of each face's group
+             */
+            private int[] splitFaces() {
+                final var faceVertexCounts = new int[FACES.length];
+                final int quadCount = vertexCount / 4;
+                if (!quadType || quadCount == 0) {
+                    return faceVertexCounts;
+                }
+                final var faces = new int[quadCount];
+                for (int quad = 0; quad < quadCount; quad++) {
+                    faces[quad] = blockFace(quad);
+                    if (faces[quad] != -1) {
+                        faceVertexCounts[faces[quad]] += 4;
+                    }
+                }
+                // where each group starts, inner quads first
+                final var groupStarts = new int[FACES.length + 1];
+                int start = vertexCount;
+                for (int face = FACES.length - 1; face >= 0; face--) {
+                    start -= faceVertexCounts[face];
+                    groupStarts[face + 1] = start;
+                }
+                final var data = vertexData;
+                final var split = new int[data.length];
+                for (int quad = 0; quad < quadCount; quad++) {
+                    final int group = faces[quad] + 1;
+                    System.arraycopy(data, quad * 4 * VERTEX_INT_SIZE, split, groupStarts[group] * VERTEX_INT_SIZE, 4 * VERTEX_INT_SIZE);
+                    groupStarts[group] += 4;
+                }
+                vertexData = split;
+                return faceVertexCounts;
+            }
+            
+            /**
+             * @return ordinal of the block face the quad lies on, facing out of the block, -1 if it isnt on one
+             */
+            private int blockFace(int quad) {
+                final var data = vertexData;
+                final int base = quad * 4 * VERTEX_INT_SIZE;
+                final int normalX = extractInt(data[base + 6], 24, 4);
+                final int normalY = extractInt(data[base + 6], 28, 4);
+                final int normalZ = extractInt(data[base + 7], 24, 4);
+                for (int face = 0; face < FACES.length; face++) {
+                    final var direction = FACES[face];
+                    if (Integer.signum(normalX) != direction.getStepX() || Integer.signum(normalY) != direction.getStepY() || Integer.signum(normalZ) != direction.getStepZ()) {
+                        continue;
+                    }
+                    final int axis = direction.getStepX() != 0 ? 0 : direction.getStepY() != 0 ? 1 : 2;
+                    final float plane = (direction.getStepX() + direction.getStepY() + direction.getStepZ()) > 0 ? 1 : 0;
+                    for (int vertex = 0; vertex < 4; vertex++) {
+                        if (Math.abs(position(quad, vertex, axis) - plane) > BLOCK_FACE_TOLERANCE) {
+                            return -1;
+                        }
+                    }
+                    return face;
+                }
+                return -1;
+            }
             
             @Override
             public VertexConsumer vertex(double x, double y, double z) {
                 // its uploaded to GL as a float, so its cased here
-                currentVertex.x = (float) x;
-                currentVertex.y = (float) y;
-                currentVertex.z = (float) z;
+                this.x = (float) x;
+                this.y = (float) y;
+                this.z = (float) z;
                 return this;
             }
             
@@ -95,14 +606,14 @@ public class InternalMesh implements Mesh {
             public VertexConsumer color(int r, int g, int b, int a) {
                 // assumes each value is <= 255, if i need to put an "& 0xFF" on these, im going to find you
                 // as a side note, that means you can pass in an RGBA value in a
-                currentVertex.rgba = (r << 24) | (g << 16) | (b << 8) | a;
+                rgba = (r << 24) | (g << 16) | (b << 8) | a;
                 return this;
             }
             
             @Override
             public VertexConsumer uv(float u, float v) {
-                currentVertex.texU = u;
-                currentVertex.texV = v;
+                texU = u;
+                texV = v;
                 return this;
             }
             
@@ -114,26 +625,141 @@ public class InternalMesh implements Mesh {
             
             @Override
             public VertexConsumer uv2(int u2, int v2) {
-                currentVertex.lightmapU = u2;
-                currentVertex.lightmapV = v2;
+                lightmapU = u2;
+                lightmapV = v2;
                 return this;
             }
             
             @Override
             public VertexConsumer normal(float nx, float ny, float nz) {
-                currentVertex.normalX = nx;
-                currentVertex.normalY = ny;
-                currentVertex.normalZ = nz;
+                normalX = nx;
+                normalY = ny;
+                normalZ = nz;
                 return this;
             }
             
             @Override
             public void endVertex() {
-                vertices.add(currentVertex);
-                
-                currentVertex = new Vertex(currentVertex);
+                untracked = true;
+                putVertex(x, y, z, rgba, texU, texV, lightmapU, lightmapV, normalX, normalY, normalZ);
                 if (defaultColorSet) {
-                    currentVertex.rgba = drgba;
+                    rgba = drgba;
+                }
+            }
+            
+            /**
+             * Copies the quad's vanilla vertex data straight into the packed vertices, doing the same transforms and lighting as the default implementation without going through the per attribute calls
+             */
+            @Override
+            public void putBulkData(PoseStack.Pose pose, BakedQuad quad, float[] brightness, float red, float green, float blue, float alpha, int[] lightmap, int overlay, boolean readExistingColor) {
+                final var vanillaData = quad.getVertices();
+                if (dependencies != null) {
+                    dependencies.sprite(quad.getSprite());
+                }
+                final var matrix = pose.pose();
+                final var normalMatrix = pose.normal();
+                final var faceNormal = quad.getDirection().getNormal();
+                final var quadNormal = normalMatrix.transform(bulkNormalVec.set(faceNormal.getX(), faceNormal.getY(), faceNormal.getZ()));
+                final float quadNormalX = quadNormal.x, quadNormalY = quadNormal.y, quadNormalZ = quadNormal.z;
+                final int vertexCount = vanillaData.length / VANILLA_VERTEX_INT_SIZE;
+                for (int i = 0, base = 0; i < vertexCount; i++, base += VANILLA_VERTEX_INT_SIZE) {
+                    final var position = matrix.transformPosition(Float.intBitsToFloat(vanillaData[base]), Float.intBitsToFloat(vanillaData[base + 1]), Float.intBitsToFloat(vanillaData[base + 2]), bulkPositionVec);
+                    
+                    // vanilla color is ABGR packed
+                    final int vanillaColor = vanillaData[base + 3];
+                    float r = brightness[i] * red;
+                    float g = brightness[i] * green;
+                    float b = brightness[i] * blue;
+                    float a = alpha;
+                    if (readExistingColor) {
+                        r *= (vanillaColor & 0xFF) / 255.0f;
+                        g *= ((vanillaColor >> 8) & 0xFF) / 255.0f;
+                        b *= ((vanillaColor >> 16) & 0xFF) / 255.0f;
+                        a *= ((vanillaColor >>> 24) & 0xFF) / 255.0f;
+                    }
+                    final int rgba = ((int) (r * 255.0f) & 0xFF) << 24 | ((int) (g * 255.0f) & 0xFF) << 16 | ((int) (b * 255.0f) & 0xFF) << 8 | ((int) (a * 255.0f) & 0xFF);
+                    
+                    // baked light, for emissive quads, is a minimum for the passed in light
+                    final int vanillaLight = vanillaData[base + 6];
+                    final int lightU = Math.max(lightmap[i] & 0xFFFF, vanillaLight & 0xFFFF);
+                    final int lightV = Math.max((lightmap[i] >>> 16) & 0xFFFF, (vanillaLight >>> 16) & 0xFFFF);
+                    
+                    // baked normals replace the face's, if the quad has them
+                    final int vanillaNormal = vanillaData[base + 7];
+                    float normalX = quadNormalX, normalY = quadNormalY, normalZ = quadNormalZ;
+                    if ((vanillaNormal & 0xFFFFFF) != 0) {
+                        normalMatrix.transform(bulkNormalVec.set((byte) vanillaNormal / 127.0f, (byte) (vanillaNormal >> 8) / 127.0f, (byte) (vanillaNormal >> 16) / 127.0f));
+                        normalX = bulkNormalVec.x;
+                        normalY = bulkNormalVec.y;
+                        normalZ = bulkNormalVec.z;
+                    }
+                    
+                    putVertex(position.x, position.y, position.z, rgba, Float.intBitsToFloat(vanillaData[base + 4]), Float.intBitsToFloat(vanillaData[base + 5]), lightU, lightV, normalX, normalY, normalZ);
+                }
+            }
+            
+            private void putVertex(float x, float y, float z, int rgba, float texU, float texV, int lightmapU, int lightmapV, float normalX, float normalY, float normalZ) {
+                if ((vertexCount + 1) * VERTEX_INT_SIZE > vertexData.length) {
+                    vertexData = Arrays.copyOf(vertexData, vertexData.length * 2);
+                }
+                final var data = vertexData;
+                final int base = vertexCount * VERTEX_INT_SIZE;
+                data[base] = Float.floatToIntBits(x); // 4
+                data[base + 1] = Float.floatToIntBits(y); // 8
+                data[base + 2] = Float.floatToIntBits(z); // 12
+                data[base + 3] = rgba; // 16
+                data[base + 4] = Float.floatToIntBits(texU); // 20
+                data[base + 5] = Float.floatToIntBits(texV); // 24
+                
+                int packedA = 0;
+                int packedB = 0;
+                if (!quadType) {
+                    packedA |= (lightmapU & 0xFF) << 24;
+                    packedA |= (lightmapV & 0xFF) << 16;
+                    
+                    tempNormalVec.set(normalX, normalY, normalZ);
+                    tempNormalVec.normalize(Short.MAX_VALUE);
+                    
+                    packedA |= (((int) tempNormalVec.x) & 0xFFFF);
+                    packedB |= (((int) tempNormalVec.y) & 0xFFFF) << 16;
+                    packedB |= (((int) tempNormalVec.z) & 0xFFFF);
+                } else {
+                    final int quadVertex = vertexCount & 0x3;
+                    // this might be the wrong order, ill need to check that
+                    final int packedLight = (lightmapU & 0x3F) | (lightmapV & 0x3F) << 6;
+                    if (quadVertex < 2) {
+                        packedLightA |= packedLight << (quadVertex * 12);
+                    } else {
+                        packedLightB |= packedLight << ((quadVertex - 2) * 12);
+                    }
+                    
+                    tempNormalVec.set(normalX, normalY, normalZ);
+                    tempNormalVec.normalize(7);
+                    
+                    packedA |= packInt((int) tempNormalVec.x, 24, 4);
+                    packedA |= packInt((int) tempNormalVec.y, 28, 4);
+                    packedB |= packInt((int) tempNormalVec.z, 24, 4);
+                    
+                    packedB |= quadVertex << 28;
+                }
+                data[base + 6] = packedA;
+                data[base + 7] = packedB;
+                vertexCount++;
+                
+                if (compactable) {
+                    // UVs are checked even if they end up unused, its not worth looking up the layout per vertex
+                    compactable = VertexLayout.compactPositionFits(x) && VertexLayout.compactPositionFits(y) && VertexLayout.compactPositionFits(z) &&
+                            VertexLayout.compactTexCoordFits(texU) && VertexLayout.compactTexCoordFits(texV);
+                }
+                
+                if (quadType && (vertexCount & 0x3) == 0) {
+                    // quad is complete, its light can be filled in
+                    for (int i = base - 3 * VERTEX_INT_SIZE; i <= base; i += VERTEX_INT_SIZE) {
+                        data[i + 6] |= packedLightA;
+                        data[i + 7] |= packedLightB;
+                    }
+                    packedLightA = 0;
+                    packedLightB = 0;
                 }
             }
             
@@ -150,10 +776,138 @@ public class InternalMesh implements Mesh {
                 defaultColorSet = false;
             }
             
+            private VertexLayout layout() {
+                return VertexLayout.of(renderType, compactable);
+            }
+            
+            /**
+             * Drops any incomplete primitive, then welds identical vertices of triangle and line render types, if indexing them is smaller
+             * no more vertices can be added after this
+             */
+            private void finish() {
+                final var mode = renderType.mode();
+                vertexCount -= vertexCount % mode.primitiveLength;
+                if (vertexCount == 0 || (mode != VertexFormat.Mode.TRIANGLES && mode != VertexFormat.Mode.LINES)) {
+                    // quads are drawn with the shared quad index buffer
+                    return;
+                }
+                final var data = vertexData;
+                // open addressing, holds the welded vertex index + 1
+                final int tableMask = (Integer.highestOneBit(vertexCount * 2 - 1) << 1) - 1;
+                final var table = new int[tableMask + 1];
+                final var weldedData = new int[vertexCount * VERTEX_INT_SIZE];
+                final var weldedIndices = new int[vertexCount];
+                int weldedCount = 0;
+                for (int i = 0, base = 0; i < vertexCount; i++, base += VERTEX_INT_SIZE) {
+                    int hash = 0;
+                    for (int j = 0; j < VERTEX_INT_SIZE; j++) {
+                        hash = hash * 0x9E3779B1 + data[base + j];
+                    }
+                    hash ^= hash >>> 15;
+                    for (int slot = hash & tableMask; ; slot = (slot + 1) & tableMask) {
+                        final int entry = table[slot];
+                        if (entry == 0) {
+                            table[slot] = weldedCount + 1;
+                            System.arraycopy(data, base, weldedData, weldedCount * VERTEX_INT_SIZE, VERTEX_INT_SIZE);
+                            weldedIndices[i] = weldedCount++;
+                            break;
+                        }
+                        final int weldedBase = (entry - 1) * VERTEX_INT_SIZE;
+                        if (Arrays.equals(data, base, base + VERTEX_INT_SIZE, weldedData, weldedBase, weldedBase + VERTEX_INT_SIZE)) {
+                            weldedIndices[i] = entry - 1;
+                            break;
+                        }
+                    }
+                }
+                final int vertexByteSize = layout().byteSize;
+                final int indexedBytes = weldedCount * vertexByteSize + ContentKey.indexBlockSize(vertexCount, ContentKey.indexByteSizeFor(weldedCount));
+                if (indexedBytes >= vertexCount * vertexByteSize) {
+                    return;
+                }
+                final var drawIndices = mode == VertexFormat.Mode.TRIANGLES ? VertexCacheOptimizer.optimizeTriangles(weldedIndices, weldedCount) : weldedIndices;
+                // vertices in order of first use, so fetches walk forward through the buffer
+                final var remap = new int[weldedCount];
+                Arrays.fill(remap, -1);
+                final var orderedData = new int[weldedCount * VERTEX_INT_SIZE];
+                int nextVertex = 0;
+                for (int i = 0; i < drawIndices.length; i++) {
+                    final int vertex = drawIndices[i];
+                    if (remap[vertex] == -1) {
+                        System.arraycopy(weldedData, vertex * VERTEX_INT_SIZE, orderedData, nextVertex * VERTEX_INT_SIZE, VERTEX_INT_SIZE);
+                        remap[vertex] = nextVertex++;
+                    }
+                    drawIndices[i] = remap[vertex];
+                }
+                vertexData = orderedData;
+                vertexCount = weldedCount;
+                indices = drawIndices;
+            }
+            
+            private void writeIndices(ByteBuffer byteBuf, int indexByteSize) {
+                final var indices = this.indices;
+                assert indices != null;
+                if (indexByteSize == Short.BYTES) {
+                    for (int index : indices) {
+                        byteBuf.putShort((short) index);
+                    }
+                } else {
+                    byteBuf.asIntBuffer().put(indices);
+                }
+            }
+            
+            /**
+             * Packs the first vertexCount vertices into the given layout, attributes the layout doesnt have are skipped
+             */
+            private void write(ByteBuffer byteBuf, VertexLayout layout, int vertexCount) {
+                final var data = vertexData;
+                if (layout == VertexLayout.FULL) {
+                    // already in this layout
+                    byteBuf.asIntBuffer().put(data, 0, vertexCount * VERTEX_INT_SIZE);
+                    return;
+                }
+                for (int i = 0, base = 0; i < vertexCount; i++, base += VERTEX_INT_SIZE) {
+                    if (layout.compact) {
+                        int position = VertexLayout.compactPosition(Float.intBitsToFloat(data[base]));
+                        position |= VertexLayout.compactPosition(Float.intBitsToFloat(data[base + 1])) << 10;
+                        position |= VertexLayout.compactPosition(Float.intBitsToFloat(data[base + 2])) << 20;
+                        byteBuf.putInt(position);
+                    } else {
+                        byteBuf.putInt(data[base]);
+                        byteBuf.putInt(data[base + 1]);
+                        byteBuf.putInt(data[base + 2]);
+                    }
+                    byteBuf.putInt(data[base + 3]);
+                    if (layout.texture) {
+                        if (layout.compact) {
+                            byteBuf.putShort(VertexLayout.compactTexCoord(Float.intBitsToFloat(data[base + 4])));
+                            byteBuf.putShort(VertexLayout.compactTexCoord(Float.intBitsToFloat(data[base + 5])));
+                        } else {
+                            byteBuf.putInt(data[base + 4]);
+                            byteBuf.putInt(data[base + 5]);
+                        }
+                    }
+                    if (layout.lighting) {
+                        byteBuf.putInt(data[base + 6]);
+                        byteBuf.putInt(data[base + 7]);
+                    }
+                }
+            }
+        }
+        
+        private record LevelBuffer(int lodLevel, RenderType renderType, BufferBuilder buffer) {
         }
         
         private final PoseStack poseStack = new PoseStack();
         private final HashMap<RenderType, BufferBuilder> buffers = new HashMap<>();
+        private final MeshDependencies dependencies = new MeshDependencies();
+        private boolean generateLODs = false;
+        private boolean mergeFaces = false;
+        private boolean fullBlock = false;
+        // build function has finished by the time this is needed, so its only computed once
+        @Nullable
+        private ContentKey contentKey;
+        // buffer of each content key component, in the same order
+        private BufferBuilder[] componentBuffers = new BufferBuilder[0];
         
         Builder() {
         }
@@ -170,130 +924,182 @@ public class InternalMesh implements Mesh {
         
         @Override
         public VertexConsumer getBuffer(RenderType renderType) {
-            return buffers.computeIfAbsent(renderType, e -> new BufferBuilder());
+            return buffers.computeIfAbsent(renderType, e -> {
+                MeshCache.renderTypeUsed(e);
+                final var bufferBuilder = new BufferBuilder(e);
+                bufferBuilder.dependencies = dependencies;
+                return bufferBuilder;
+            });
         }
         
-        int bytesRequired() {
-            int totalVertices = 0;
-            for (var entry : buffers.entrySet()) {
-                var renderType = entry.getKey();
-                var bufferBuilder = entry.getValue();
-                int vertexCount = bufferBuilder.vertices.size() - bufferBuilder.vertices.size() % renderType.mode().primitiveLength;
-                if (vertexCount == 0) {
-                    continue;
+        @Override
+        public void dependsOn(BlockState blockState) {
+            dependencies.blockState(blockState);
+        }
+        
+        @Override
+        public void dependsOn(ModelResourceLocation model) {
+            dependencies.model(model);
+        }
+        
+        private void finishDependencies() {
+            for (var bufferBuilder : buffers.values()) {
+                if (bufferBuilder.untracked) {
+                    dependencies.untracked();
                 }
-                totalVertices += vertexCount;
             }
-            return totalVertices * VERTEX_BYTE_SIZE;
+            dependencies.finish();
         }
         
-        Object2LongArrayMap<RenderType> build(ByteBuffer masterBuffer) {
-            Object2LongArrayMap<RenderType> drawInfoMap = new Object2LongArrayMap<>();
-            
-            int currentByteIndex = 0;
-            for (var entry : buffers.entrySet()) {
-                RenderType renderType = entry.getKey();
-                BufferBuilder bufferBuilder = entry.getValue();
-                int vertexCount = bufferBuilder.vertices.size() - bufferBuilder.vertices.size() % renderType.mode().primitiveLength;
-                if (vertexCount == 0) {
-                    continue;
+        @Override
+        public MeshDependencies dependencies() {
+            return dependencies;
+        }
+        
+        @Override
+        public void generateLODs() {
+            generateLODs = true;
+        }
+        
+        @Override
+        public void mergeFaces() {
+            mergeFaces = true;
+        }
+        
+        @Override
+        public void fullBlock() {
+            fullBlock = true;
+        }
+        
+        /**
+         * Level 1 drops details too small to see from a distance, level 2 collapses quads to their bounding box
+         * render types a level doesnt change are left out of it, and draw the previous level's vertices there
+         * must be called before the buffers are finished
+         */
+        private void generateLODs(ObjectArrayList<HashMap<RenderType, BufferBuilder>> levels) {
+            // what each render type draws at the previous level
+            final var previousLevel = new HashMap<>(buffers);
+            for (int level = 1; level < LOD_LEVELS; level++) {
+                final var levelBuffers = new HashMap<RenderType, BufferBuilder>();
+                for (var entry : previousLevel.entrySet()) {
+                    final var previous = entry.getValue();
+                    final var simplified = level == 1 ? previous.withoutDetails(LOD_DETAIL_SIZE) : previous.boundingBox();
+                    if (simplified != null && !simplified.sameVertices(previous)) {
+                        levelBuffers.put(entry.getKey(), simplified);
+                    }
                 }
-                final long offsetAndSize = (long) (currentByteIndex / VERTEX_BYTE_SIZE) << 32 | (long) vertexCount;
-                final var byteBuf = masterBuffer.slice(currentByteIndex, vertexCount * VERTEX_BYTE_SIZE);
-                byteBuf.order(ByteOrder.nativeOrder());
-                currentByteIndex += vertexCount * VERTEX_BYTE_SIZE;
-                
-                Vector3f tempNormalVec = new Vector3f();
-                
-                final boolean quadType = renderType.mode() == VertexFormat.Mode.QUADS;
-                if (!quadType) {
-                    int vertexIndex = 0;
-                    for (Vertex vertex : bufferBuilder.vertices) {
-                        if (vertexIndex > vertexCount) {
-                            break;
-                        }
-                        byteBuf.putFloat(vertex.x); // 4
-                        byteBuf.putFloat(vertex.y); // 8
-                        byteBuf.putFloat(vertex.z); // 12
-                        byteBuf.putInt(vertex.rgba); // 16
-                        byteBuf.putFloat(vertex.texU); // 20
-                        byteBuf.putFloat(vertex.texV); // 24
-                        
-                        int packedA = 0;
-                        int packedB = 0;
-                        
-                        packedA |= (vertex.lightmapU & 0xFF) << 24;
-                        packedA |= (vertex.lightmapV & 0xFF) << 16;
-                        
-                        tempNormalVec.set(vertex.normalX, vertex.normalY, vertex.normalZ);
-                        tempNormalVec.normalize(Short.MAX_VALUE);
-                        
-                        packedA |= (((int) tempNormalVec.x) & 0xFFFF);
-                        packedB |= (((int) tempNormalVec.y) & 0xFFFF) << 16;
-                        packedB |= (((int) tempNormalVec.z) & 0xFFFF);
-                        
-                        byteBuf.putInt(packedA);
-                        byteBuf.putInt(packedB);
-                        vertexIndex++;
+                previousLevel.putAll(levelBuffers);
+                levels.add(levelBuffers);
+            }
+        }
+        
+        /**
+         * Identifies the packed vertex data this builder produces, meshes with equal keys can share their vertex data
+         */
+        @Override
+        public ContentKey contentKey() {
+            if (contentKey != null) {
+                return contentKey;
+            }
+            if (mergeFaces) {
+                for (var bufferBuilder : buffers.values()) {
+                    bufferBuilder.mergeCoplanarQuads();
+                }
+            }
+            final var levels = new ObjectArrayList<HashMap<RenderType, BufferBuilder>>();
+            levels.add(buffers);
+            if (generateLODs) {
+                generateLODs(levels);
+            }
+            final var components = new ObjectArrayList<LevelBuffer>();
+            for (int level = 0; level < levels.size(); level++) {
+                for (var entry : levels.get(level).entrySet()) {
+                    var bufferBuilder = entry.getValue();
+                    bufferBuilder.finish();
+                    // simplified levels keep empty buffers, that render type draws nothing from that distance
+                    if (bufferBuilder.vertexCount != 0 || level != 0) {
+                        components.add(new LevelBuffer(level, entry.getKey(), bufferBuilder));
                     }
-                } else {
-                    int vertexIndex = 0;
-                    var iter = bufferBuilder.vertices.iterator();
-                    Vertex[] currentVertices = new Vertex[4];
-                    mainLoop:
-                    while (true) {
-                        for (int i = 0; i < 4; i++) {
-                            if (vertexIndex > vertexCount) {
-                                break mainLoop;
-                            }
-                            if (!iter.hasNext()) {
-                                break mainLoop;
-                            }
-                            currentVertices[i] = iter.next();
-                            vertexIndex++;
-                        }
-                        
-                        int packedLightA = 0;
-                        int packedLightB = 0;
-                        // this might be the wrong order, ill need to check that
-                        packedLightA |= (currentVertices[0].lightmapU & 0x3F);
-                        packedLightA |= (currentVertices[0].lightmapV & 0x3F) << 6;
-                        packedLightA |= (currentVertices[1].lightmapU & 0x3F) << 12;
-                        packedLightA |= (currentVertices[1].lightmapV & 0x3F) << 18;
-                        packedLightB |= (currentVertices[2].lightmapU & 0x3F);
-                        packedLightB |= (currentVertices[2].lightmapV & 0x3F) << 6;
-                        packedLightB |= (currentVertices[3].lightmapU & 0x3F) << 12;
-                        packedLightB |= (currentVertices[3].lightmapV & 0x3F) << 18;
-                        
-                        for (int i = 0; i < 4; i++) {
-                            var vertex = currentVertices[i];
-                            byteBuf.putInt(Float.floatToIntBits(vertex.x)); // 4
-                            byteBuf.putInt(Float.floatToIntBits(vertex.y)); // 8
-                            byteBuf.putInt(Float.floatToIntBits(vertex.z)); // 12
-                            byteBuf.putInt(vertex.rgba); // 16
-                            byteBuf.putInt(Float.floatToIntBits(vertex.texU)); // 20
-                            byteBuf.putInt(Float.floatToIntBits(vertex.texV)); // 24
-                            
-                            int packedA = packedLightA;
-                            int packedB = packedLightB;
-                            
-                            tempNormalVec.set(vertex.normalX, vertex.normalY, vertex.normalZ);
-                            tempNormalVec.normalize(7);
-                            
-                            packedA |= packInt((int) tempNormalVec.x, 24, 4);
-                            packedA |= packInt((int) tempNormalVec.y, 28, 4);
-                            packedB |= packInt((int) tempNormalVec.z, 24, 4);
-                            
-                            packedB |= (i & 0x3) << 28;
-                            
-                            byteBuf.putInt(packedA);
-                            byteBuf.putInt(packedB);
+                }
+            }
+            // same layouts are kept together, so only a change in layout needs alignment padding
+            components.sort(Comparator.comparing(component -> component.buffer.layout()));
+            final var renderTypes = new RenderType[components.size()];
+            final var lodLevels = new int[components.size()];
+            final var layouts = new VertexLayout[components.size()];
+            final var vertexCounts = new int[components.size()];
+            final var indexCounts = new int[components.size()];
+            final var faceVertexCounts = fullBlock ? new int[components.size() * FACES.length] : null;
+            componentBuffers = new BufferBuilder[components.size()];
+            // two independent 64 bit hashes, collisions are not a practical concern at 128 bits
+            long hashA = 0x9E3779B97F4A7C15L;
+            long hashB = 0xC2B2AE3D27D4EB4FL;
+            final var bounds = new float[]{Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+            for (int j = 0; j < components.size(); j++) {
+                final var component = components.get(j);
+                var bufferBuilder = component.buffer;
+                renderTypes[j] = component.renderType;
+                lodLevels[j] = component.lodLevel;
+                componentBuffers[j] = bufferBuilder;
+                layouts[j] = bufferBuilder.layout();
+                hashA = (hashA ^ component.lodLevel) * 0x100000001B3L;
+                vertexCounts[j] = bufferBuilder.vertexCount;
+                if (faceVertexCounts != null) {
+                    System.arraycopy(bufferBuilder.splitFaces(), 0, faceVertexCounts, j * FACES.length, FACES.length);
+                }
+                final var data = bufferBuilder.vertexData;
+                final int intCount = bufferBuilder.vertexCount * VERTEX_INT_SIZE;
+                for (int i = 0; i < intCount; i++) {
+                    hashA = (hashA ^ data[i]) * 0x100000001B3L;
+                    hashA ^= hashA >>> 29;
+                    hashB = Long.rotateLeft(hashB + data[i] * 0x9E3779B97F4A7C15L, 31) * 0xBF58476D1CE4E5B9L;
+                }
+                if (component.lodLevel == 0) {
+                    for (int i = 0; i < intCount; i += VERTEX_INT_SIZE) {
+                        for (int k = 0; k < 3; k++) {
+                            final float position = Float.intBitsToFloat(data[i + k]);
+                            bounds[k] = Math.min(bounds[k], position);
+                            bounds[k + 3] = Math.max(bounds[k + 3], position);
                         }
                     }
                 }
-                drawInfoMap.put(renderType, offsetAndSize);
+                final var indices = bufferBuilder.indices;
+                if (indices != null) {
+                    indexCounts[j] = indices.length;
+                    for (int index : indices) {
+                        hashA = (hashA ^ index) * 0x100000001B3L;
+                        hashA ^= hashA >>> 29;
+                        hashB = Long.rotateLeft(hashB + index * 0x9E3779B97F4A7C15L, 31) * 0xBF58476D1CE4E5B9L;
+                    }
+                }
+            }
+            if (bounds[0] > bounds[3]) {
+                // no vertices
+                Arrays.fill(bounds, 0);
+            }
+            contentKey = new ContentKey(renderTypes, lodLevels, layouts, vertexCounts, indexCounts, faceVertexCounts, mergeFaces, bounds, hashA, hashB);
+            return contentKey;
+        }
+        
+        @Override
+        public void build(ByteBuffer masterBuffer, int baseOffset) {
+            final var key = contentKey();
+            final var byteOffsets = key.byteOffsets(baseOffset);
+            final var indexByteOffsets = key.indexByteOffsets(baseOffset);
+            for (int i = 0; i < key.renderTypes.length; i++) {
+                final var layout = key.layouts[i];
+                final int vertexCount = key.vertexCounts[i];
+                final var bufferBuilder = componentBuffers[i];
+                final var byteBuf = masterBuffer.slice(byteOffsets[i], vertexCount * layout.byteSize);
+                byteBuf.order(ByteOrder.nativeOrder());
+                bufferBuilder.write(byteBuf, layout, vertexCount);
+                if (key.indexCounts[i] != 0) {
+                    final int indexByteSize = key.indexByteSize(i);
+                    final var indexBuf = masterBuffer.slice(indexByteOffsets[i], key.indexCounts[i] * indexByteSize);
+                    indexBuf.order(ByteOrder.nativeOrder());
+                    bufferBuilder.writeIndices(indexBuf, indexByteSize);
+                }
             }
-            return drawInfoMap;
         }
         
         private static int packInt(int value, int position, int width) {
@@ -314,65 +1120,353 @@ public class InternalMesh implements Mesh {
         }
     }
     
+    /**
+     * @param lodLevels:        level of detail each component is drawn at, render types missing from a level draw the level below it
+     * @param indexCounts:      0 for render types drawn without indices
+     * @param faceVertexCounts: per component, vertices on each block face in Direction order, grouped at the end of it, null if the mesh isnt a full block
+     * @param mergedFaces:      built with {@link Mesh.Builder#mergeFaces}, so vertices dont keep the order they were built in
+     * @param bounds:           min xyz then max xyz of the full detail vertices, derived from them, so not part of equality
+     */
+    record ContentKey(RenderType[] renderTypes, int[] lodLevels, VertexLayout[] layouts, int[] vertexCounts, int[] indexCounts, @Nullable int[] faceVertexCounts, boolean mergedFaces, float[] bounds, long hashA, long hashB) {
+        
+        static int indexByteSizeFor(int vertexCount) {
+            // indices are relative to the base vertex, so its only the vertex count of the render type that matters
+            return vertexCount <= 65536 ? Short.BYTES : Integer.BYTES;
+        }
+        
+        static int indexBlockSize(int indexCount, int indexByteSize) {
+            // kept int aligned, so whatever follows is too
+            return (indexCount * indexByteSize + Integer.BYTES - 1) & -Integer.BYTES;
+        }
+        
+        /**
+         * @return 0 if the render type isnt indexed
+         */
+        int indexByteSize(int component) {
+            return indexCounts[component] == 0 ? 0 : indexByteSizeFor(vertexCounts[component]);
+        }
+        
+        /**
+         * Upper bound of the packed size, including any padding needed to align each component to its vertex size
+         */
+        int bytesRequired() {
+            int size = 0;
+            for (int i = 0; i < renderTypes.length; i++) {
+                size += indexBlockSize(indexCounts[i], indexByteSize(i));
+            }
+            for (int i = 0; i < renderTypes.length; i++) {
+                final var layout = layouts[i];
+                // vertex allocations are VERTEX_BYTE_SIZE aligned, and a component ends aligned for the next one of the same layout
+                final boolean aligned = i == 0 ? VERTEX_BYTE_SIZE % layout.byteSize == 0 : layouts[i - 1] == layout;
+                if (!aligned) {
+                    // everything is at least int aligned
+                    size += layout.byteSize - Integer.BYTES;
+                }
+                size += vertexCounts[i] * layout.byteSize;
+            }
+            return size;
+        }
+        
+        /**
+         * @param baseOffset: arena offset the vertex data starts at
+         * @return start of each component relative to baseOffset, such that the arena offset is a multiple of its vertex size
+         */
+        int[] byteOffsets(int baseOffset) {
+            return Arrays.copyOf(offsets(baseOffset), renderTypes.length);
+        }
+        
+        /**
+         * @param baseOffset: arena offset the vertex data starts at
+         * @return start of each component's indices relative to baseOffset, indices come after all vertices
+         */
+        int[] indexByteOffsets(int baseOffset) {
+            return Arrays.copyOfRange(offsets(baseOffset), renderTypes.length, renderTypes.length * 2);
+        }
+        
+        private int[] offsets(int baseOffset) {
+            final var offsets = new int[renderTypes.length * 2];
+            int offset = baseOffset;
+            for (int i = 0; i < renderTypes.length; i++) {
+                final int byteSize = layouts[i].byteSize;
+                offset = ((offset + byteSize - 1) / byteSize) * byteSize;
+                offsets[i] = offset - baseOffset;
+                offset += vertexCounts[i] * byteSize;
+            }
+            for (int i = 0; i < renderTypes.length; i++) {
+                offsets[renderTypes.length + i] = offset - baseOffset;
+                offset += indexBlockSize(indexCounts[i], indexByteSize(i));
+            }
+            return offsets;
+        }
+        
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ContentKey other)) {
+                return false;
+            }
+            return hashA == other.hashA && hashB == other.hashB && Arrays.equals(renderTypes, other.renderTypes) && Arrays.equals(lodLevels, other.lodLevels) && Arrays.equals(layouts, other.layouts) && Arrays.equals(vertexCounts, other.vertexCounts) && Arrays.equals(indexCounts, other.indexCounts) && Arrays.equals(faceVertexCounts, other.faceVertexCounts) && mergedFaces == other.mergedFaces;
+        }
+        
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hashA);
+        }
+    }
+    
     public static class Manager {
+        
+        /**
+         * Vertex data shared between every mesh that built identical vertices, freed once no mesh uses it
+         */
+        private static class SharedVertices {
+            private final ContentKey key;
+            private final Buffer.Allocation allocation;
+            // only used by one mesh, and kept locked so its staging buffer holds all of its contents, partial updates can then be uploaded alone
+            private final boolean updatable;
+            // every render type's component at each level of detail, including ones carried over from the level below
+            private final ObjectArrayList<Object2ObjectArrayMap<RenderType, TrackedMesh.Component>> lods = new ObjectArrayList<>();
+            private int refCount = 0;
+            
+            private SharedVertices(ContentKey key, Buffer.Allocation allocation, boolean updatable) {
+                this.key = key;
+                this.allocation = allocation;
+                this.updatable = updatable;
+            }
+        }
+        
         public static class TrackedMesh {
-            public record Component(int vertexOffset, int vertexCount) {
+            /**
+             * @param vertexBuffer:     arena the vertices live in, vertexOffset is relative to it, in units of the layout's vertex size
+             * @param indexByteSize:    2 or 4, or 0 if drawn without indices
+             * @param indexOffset:      first index in the same arena, in units of the index size, indices are relative to vertexOffset
+             * @param faceVertexCounts: vertices on each block face, see {@link ContentKey#faceVertexCounts}, null if the mesh isnt a full block
+             * @param merged:           coplanar quads were merged, so vertices dont keep the order they were built in
+             */
+            public record Component(Buffer vertexBuffer, VertexLayout vertexLayout, int vertexOffset, int vertexCount, int indexByteSize, int indexOffset, int indexCount, @Nullable int[] faceVertexCounts, boolean merged) {
             }
             
+            private static final ObjectArrayList<Object2ObjectArrayMap<RenderType, Component>> NO_LODS = ObjectArrayList.of(new Object2ObjectArrayMap<>());
+            
             public final WeakReference<InternalMesh> meshRef;
-            private final Buffer vertexBuffer;
-            private Buffer.Allocation vertexAllocation;
-            private final Object2ObjectArrayMap<RenderType, Component> drawInfo = new Object2ObjectArrayMap<>();
+            private final Manager manager;
+            // stable identity of the mesh across launches, null if it cant be cached
+            @Nullable
+            private final String cacheKey;
+            // the build function can run on worker threads during a reload, otherwise its run on the render thread
+            private final boolean threadSafe;
+            @Nullable
+            private SharedVertices vertices;
+            private ObjectArrayList<Object2ObjectArrayMap<RenderType, Component>> lods = NO_LODS;
             private final ObjectArrayList<Consumer<TrackedMesh>> buildCallbacks = new ObjectArrayList<>();
+            // bumped by every build, an async build only swaps in if nothing was started after it
+            private final AtomicInteger buildGeneration = new AtomicInteger();
+            // generation of whatever is committed, render thread only, behind buildGeneration while an async build is in progress
+            private int committedGeneration = 0;
+            @Nullable
+            private MeshDependencies dependencies;
             
-            public TrackedMesh(WeakReference<InternalMesh> meshRef, Buffer vertexBuffer) {
+            public TrackedMesh(WeakReference<InternalMesh> meshRef, Manager manager, @Nullable String cacheKey, boolean threadSafe) {
                 this.meshRef = meshRef;
-                this.vertexBuffer = vertexBuffer;
+                this.manager = manager;
+                this.cacheKey = cacheKey;
+                this.threadSafe = threadSafe;
             }
             
             void rebuild() {
-                var mesh = meshRef.get();
-                if (mesh == null) {
-                    return;
+                committedGeneration = buildGeneration.incrementAndGet();
+                final var builder = capture();
+                if (builder != null) {
+                    commit(builder);
                 }
-                Object2LongArrayMap<RenderType> rawDrawInfo;
-                drawInfo.clear();
-                try {
-                    rawDrawInfo = mesh.build(this::allocBuffer);
-                    vertexAllocation.dirty();
-                } finally {
-                    if (vertexAllocation != null) {
-                        vertexAllocation.unlock();
+            }
+            
+            /**
+             * Captures on a worker thread, the commit is queued for the render thread
+             */
+            void rebuildAsync() {
+                final int generation = buildGeneration.incrementAndGet();
+                CompletableFuture.runAsync(() -> {
+                    if (buildGeneration.get() != generation) {
+                        return;
+                    }
+                    final var builder = capture();
+                    if (builder == null) {
+                        return;
                     }
+                    manager.asyncBuildQueue.enqueue(() -> {
+                        // checked again, a build may have started while this one was running
+                        if (buildGeneration.get() == generation) {
+                            committedGeneration = generation;
+                            commit(builder);
+                        }
+                    });
+                }).exceptionally(e -> {
+                    QuartzCore.LOGGER.error("Async mesh build failed", e);
+                    return null;
+                });
+            }
+            
+            @Nullable
+            private Builder capture() {
+                var mesh = meshRef.get();
+                if (mesh == null) {
+                    return null;
                 }
-                for (var renderTypeEntry : rawDrawInfo.object2LongEntrySet()) {
-                    var renderType = renderTypeEntry.getKey();
-                    var drawLong = renderTypeEntry.getLongValue();
-                    var drawComponent = new Component((int) (drawLong >> 32) + vertexAllocation.offset() / VERTEX_BYTE_SIZE, (int) drawLong);
-                    drawInfo.put(renderType, drawComponent);
+                return mesh.capture();
+            }
+            
+            /**
+             * Render thread only, finds or allocates and writes the vertex data then fires build callbacks
+             */
+            private void commit(PackedVertices builder) {
+                commit(builder, false);
+            }
+            
+            /**
+             * @param updatable: allocate vertices of its own that can be updated in place, instead of looking for identical ones
+             */
+            private void commit(PackedVertices builder, boolean updatable) {
+                final var key = builder.contentKey();
+                var newVertices = updatable ? null : manager.sharedVertices.get(key);
+                if (newVertices == null) {
+                    // the contents are rebuilt entirely, so nothing needs to be kept, and this space is likely reused right away
+                    releaseVertices();
+                    newVertices = manager.createSharedVertices(key, builder, updatable);
                 }
+                newVertices.refCount++;
+                // released after the new one is referenced, in case its the same
+                releaseVertices();
+                vertices = newVertices;
+                dependencies = builder.dependencies();
+                lods = newVertices.lods;
                 for (int i = 0; i < buildCallbacks.size(); i++) {
                     buildCallbacks.get(i).accept(this);
                 }
             }
             
-            private ByteBuffer allocBuffer(int size) {
-                if (vertexAllocation != null) {
-                    vertexAllocation = vertexBuffer.realloc(vertexAllocation, size, VERTEX_BYTE_SIZE);
-                } else {
-                    vertexAllocation = vertexBuffer.alloc(size, VERTEX_BYTE_SIZE);
+            /**
+             * Render thread only
+             */
+            void releaseVertices() {
+                final var vertices = this.vertices;
+                if (vertices == null) {
+                    return;
+                }
+                this.vertices = null;
+                lods = NO_LODS;
+                if (--vertices.refCount == 0) {
+                    // remapped and updatable vertices are no longer in the lookup
+                    manager.sharedVertices.remove(vertices.key, vertices);
+                    vertices.allocation.unlock();
+                    vertices.allocation.allocator().free(vertices.allocation);
                 }
-                vertexAllocation.lock();
-                return vertexAllocation.buffer();
             }
             
+            /**
+             * Doesnt touch GL, but must not run at the same time as a commit
+             */
+            private MeshDependencies.Change dependencyChange() {
+                final var dependencies = this.dependencies;
+                if (vertices == null || dependencies == null || committedGeneration != buildGeneration.get()) {
+                    // never built, built from something unknown, or an async build is waiting to be swapped in
+                    return MeshDependencies.Change.REBUILD;
+                }
+                return dependencies.check();
+            }
+            
+            /**
+             * Render thread only, see {@link Mesh#update}
+             */
+            void update(RenderType renderType, int vertexOffset, Consumer<VertexConsumer> writer) {
+                if (vertices == null) {
+                    return;
+                }
+                if (!vertices.updatable) {
+                    // static arenas dont keep a CPU side copy, so its built again into an allocation that does
+                    final var builder = capture();
+                    if (builder == null) {
+                        return;
+                    }
+                    committedGeneration = buildGeneration.incrementAndGet();
+                    commit(builder, true);
+                }
+                final var vertices = this.vertices;
+                assert vertices != null;
+                final var component = lods.get(0).get(renderType);
+                if (component == null) {
+                    throw new IllegalArgumentException("Mesh doesnt use render type " + renderType);
+                }
+                if (component.indexCount != 0) {
+                    throw new IllegalArgumentException("Vertices of " + renderType + " were welded, so they dont keep the order they were built in");
+                }
+                if (component.merged) {
+                    throw new IllegalArgumentException("Quads of " + renderType + " were merged, so they dont keep the order they were built in");
+                }
+                final int primitiveLength = renderType.mode().primitiveLength;
+                if (vertexOffset % primitiveLength != 0) {
+                    throw new IllegalArgumentException("Vertex offset " + vertexOffset + " doesnt start a primitive");
+                }
+                final var bufferBuilder = new Builder.BufferBuilder(renderType);
+                writer.accept(bufferBuilder);
+                final int vertexCount = bufferBuilder.vertexCount - bufferBuilder.vertexCount % primitiveLength;
+                if (vertexOffset < 0 || vertexOffset + vertexCount > component.vertexCount) {
+                    throw new IndexOutOfBoundsException("Vertices " + vertexOffset + " to " + (vertexOffset + vertexCount) + " out of range for " + component.vertexCount + " vertices");
+                }
+                final var layout = component.vertexLayout;
+                if (layout.compact && !bufferBuilder.compactable) {
+                    throw new IllegalArgumentException("Vertices dont fit the compact layout " + renderType + " was built with");
+                }
+                final var allocation = vertices.allocation;
+                final int byteOffset = (component.vertexOffset + vertexOffset) * layout.byteSize - allocation.offset();
+                final int byteSize = vertexCount * layout.byteSize;
+                final var byteBuf = allocation.buffer().slice(byteOffset, byteSize);
+                byteBuf.order(ByteOrder.nativeOrder());
+                bufferBuilder.write(byteBuf, layout, vertexCount);
+                allocation.dirtyRange(byteOffset, byteSize);
+            }
+            
+            /**
+             * @return min xyz then max xyz of the full detail vertices, null if the mesh isnt built
+             */
+            @Nullable
+            public float[] bounds() {
+                final var vertices = this.vertices;
+                return vertices == null ? null : vertices.key.bounds;
+            }
+            
+            /**
+             * Declared with {@link Mesh.Builder#fullBlock}, so it hides faces of other full blocks pressed against it
+             */
+            public boolean fullBlock() {
+                final var vertices = this.vertices;
+                return vertices != null && vertices.key.faceVertexCounts != null;
+            }
+            
+            /**
+             * Render types used at full detail, simplified levels never add any
+             */
             public Collection<RenderType> usedRenderTypes() {
-                return drawInfo.keySet();
+                return lods.get(0).keySet();
+            }
+            
+            /**
+             * @return 1 if the mesh doesnt have simplified levels
+             */
+            public int lodCount() {
+                return lods.size();
             }
             
             @Nullable
             public Component renderTypeComponent(RenderType renderType) {
-                return drawInfo.get(renderType);
+                return renderTypeComponent(renderType, 0);
+            }
+            
+            /**
+             * @return component drawn at that level of detail, may have no vertices if the render type is dropped at that level
+             */
+            @Nullable
+            public Component renderTypeComponent(RenderType renderType, int lodLevel) {
+                return lods.get(lodLevel).get(renderType);
             }
             
             public void addBuildCallback(Consumer<TrackedMesh> consumer) {
@@ -384,42 +1478,266 @@ public class InternalMesh implements Mesh {
             }
         }
         
-        private final ObjectArrayList<TrackedMesh> trackedMeshes = new ObjectArrayList<TrackedMesh>();
-        public final Buffer vertexBuffer;
+        // only used to rebuild everything, lookups go through the mesh itself
+        private final Set<TrackedMesh> trackedMeshes = ConcurrentHashMap.newKeySet();
+        private final IntFunction<Buffer> arenaCreator;
+        private final ObjectArrayList<Buffer> vertexArenas = new ObjectArrayList<>();
+        // render thread only
+        private final Object2ObjectOpenHashMap<ContentKey, SharedVertices> sharedVertices = new Object2ObjectOpenHashMap<>();
+        // finished async builds, swapped in by swapAsyncBuilds
+        private final WorkQueue asyncBuildQueue = new WorkQueue();
+        
+        /**
+         * @param arenaCreator: creates a vertex arena buffer with at least the given initial size
+         */
+        public Manager(IntFunction<Buffer> arenaCreator) {
+            this.arenaCreator = arenaCreator;
+        }
+        
+        public ObjectArrayList<Buffer> vertexArenas() {
+            return vertexArenas;
+        }
+        
+        private Buffer.Allocation allocVertices(int size) {
+            for (int i = 0; i < vertexArenas.size(); i++) {
+                final var allocation = vertexArenas.get(i).tryAlloc(size, VERTEX_BYTE_SIZE);
+                if (allocation != null) {
+                    return allocation;
+                }
+            }
+            // arenas are never grown, a new one is added instead, so existing mesh data is never copied
+            final var arena = arenaCreator.apply(Math.max(VERTEX_ARENA_BYTE_SIZE, size));
+            vertexArenas.add(arena);
+            return arena.alloc(size, VERTEX_BYTE_SIZE);
+        }
         
-        public Manager(Buffer vertexBuffer) {
-            this.vertexBuffer = vertexBuffer;
+        /**
+         * @param updatable: left locked and out of the shared lookup, see {@link SharedVertices#updatable}
+         */
+        private SharedVertices createSharedVertices(ContentKey key, PackedVertices builder, boolean updatable) {
+            final var allocation = allocVertices(builder.bytesRequired());
+            allocation.lock();
+            try {
+                builder.build(allocation.buffer(), allocation.offset());
+                allocation.dirty();
+            } finally {
+                if (!updatable) {
+                    allocation.unlock();
+                }
+            }
+            final var vertices = new SharedVertices(key, allocation, updatable);
+            final var byteOffsets = key.byteOffsets(allocation.offset());
+            final var indexByteOffsets = key.indexByteOffsets(allocation.offset());
+            int lodCount = 1;
+            for (int lodLevel : key.lodLevels) {
+                lodCount = Math.max(lodCount, lodLevel + 1);
+            }
+            for (int lodLevel = 0; lodLevel < lodCount; lodLevel++) {
+                final var components = lodLevel == 0 ? new Object2ObjectArrayMap<RenderType, TrackedMesh.Component>() : new Object2ObjectArrayMap<>(vertices.lods.get(lodLevel - 1));
+                for (int i = 0; i < key.renderTypes.length; i++) {
+                    if (key.lodLevels[i] != lodLevel) {
+                        continue;
+                    }
+                    final var layout = key.layouts[i];
+                    final int vertexOffset = (allocation.offset() + byteOffsets[i]) / layout.byteSize;
+                    final int indexByteSize = key.indexByteSize(i);
+                    final int indexOffset = indexByteSize == 0 ? 0 : (allocation.offset() + indexByteOffsets[i]) / indexByteSize;
+                    final var faceVertexCounts = key.faceVertexCounts == null ? null : Arrays.copyOfRange(key.faceVertexCounts, i * FACES.length, (i + 1) * FACES.length);
+                    components.put(key.renderTypes[i], new TrackedMesh.Component(allocation.allocator(), layout, vertexOffset, key.vertexCounts[i], indexByteSize, indexOffset, key.indexCounts[i], faceVertexCounts, key.mergedFaces));
+                }
+                vertices.lods.add(components);
+            }
+            if (!updatable) {
+                sharedVertices.put(key, vertices);
+            }
+            return vertices;
         }
         
         public InternalMesh createMesh(Consumer<Mesh.Builder> buildFunc) {
+            return createMesh(buildFunc, null, false);
+        }
+        
+        /**
+         * @param cacheKey:   identifies what the build function builds across launches, so its output can be loaded from the mesh cache instead
+         *                    must change if the build function would build something different from the same resources
+         * @param threadSafe: the build function can run on worker threads, in parallel with other build functions, see {@link #buildAllMeshes}
+         */
+        public InternalMesh createMesh(Consumer<Mesh.Builder> buildFunc, @Nullable String cacheKey, boolean threadSafe) {
             final var staticMesh = new InternalMesh(buildFunc);
-            final var trackedMesh = new TrackedMesh(new WeakReference<>(staticMesh), vertexBuffer);
-            synchronized (trackedMeshes) {
-                trackedMeshes.add(trackedMesh);
-            }
+            final var trackedMesh = new TrackedMesh(new WeakReference<>(staticMesh), this, cacheKey, threadSafe);
+            staticMesh.trackedMesh = trackedMesh;
+            trackedMeshes.add(trackedMesh);
+            final var trackedMeshes = this.trackedMeshes;
             QuartzCore.CLEANER.register(staticMesh, () -> {
-                synchronized (trackedMeshes) {
-                    trackedMeshes.remove(trackedMesh);
-                }
+                trackedMeshes.remove(trackedMesh);
+                QuartzCore.deletionQueue.enqueue(trackedMesh::releaseVertices);
             });
             return staticMesh;
         }
         
         @Nullable
         public TrackedMesh getMeshInfo(Mesh mesh) {
-            for (int i = 0; i < trackedMeshes.size(); i++) {
-                var trackedMesh = trackedMeshes.get(i);
-                if (trackedMesh.meshRef.get() == mesh) {
-                    return trackedMesh;
-                }
+            if (!(mesh instanceof InternalMesh internalMesh)) {
+                return null;
             }
-            return null;
+            final var trackedMesh = internalMesh.trackedMesh;
+            if (trackedMesh == null || trackedMesh.manager != this) {
+                return null;
+            }
+            return trackedMesh;
         }
         
+        /**
+         * Render thread only, builds every mesh again after a resource reload, except those whose dependencies didnt change
+         * meshes whose sprites only moved in the atlas have their UVs remapped in place instead
+         * build functions created as thread safe run in parallel on worker threads, the rest run on this thread, one at a time
+         */
         public void buildAllMeshes() {
-            for (TrackedMesh value : trackedMeshes) {
-                buildTrackedMesh(value);
+            final var allMeshes = trackedMeshes.toArray(new TrackedMesh[0]);
+            // reading models and the atlas doesnt touch GL either
+            final var changes = new MeshDependencies.Change[allMeshes.length];
+            Arrays.parallelSetAll(changes, i -> allMeshes[i].dependencyChange());
+            final var rebuiltMeshes = new ObjectArrayList<TrackedMesh>();
+            final var remappedVertices = new ReferenceOpenHashSet<SharedVertices>();
+            for (int i = 0; i < allMeshes.length; i++) {
+                switch (changes[i]) {
+                    case NONE -> {
+                    }
+                    case SPRITES_MOVED -> {
+                        if (!remapSprites(allMeshes[i], remappedVertices)) {
+                            rebuiltMeshes.add(allMeshes[i]);
+                        }
+                    }
+                    case REBUILD -> rebuiltMeshes.add(allMeshes[i]);
+                }
+            }
+            final var meshes = rebuiltMeshes.toArray(new TrackedMesh[0]);
+            final var cache = MeshCache.open();
+            // running build functions and packing vertices is most of the work, and doesnt touch GL, so that is done in parallel where its safe to
+            final var builders = new PackedVertices[meshes.length];
+            Arrays.parallelSetAll(builders, i -> meshes[i].threadSafe ? load(meshes[i], cache) : null);
+            for (int i = 0; i < meshes.length; i++) {
+                if (!meshes[i].threadSafe) {
+                    builders[i] = load(meshes[i], cache);
+                }
+            }
+            // GL allocations and build callbacks stay on this thread, in order
+            for (int i = 0; i < meshes.length; i++) {
+                final var builder = builders[i];
+                // supersedes any async build still in progress
+                meshes[i].committedGeneration = meshes[i].buildGeneration.incrementAndGet();
+                if (builder != null) {
+                    meshes[i].commit(builder);
+                }
+            }
+            if (cache != null) {
+                final var cacheKeys = new String[allMeshes.length];
+                final var cacheVertices = new PackedVertices[allMeshes.length];
+                for (int i = 0, rebuilt = 0; i < allMeshes.length; i++) {
+                    cacheKeys[i] = allMeshes[i].cacheKey;
+                    if (rebuilt < meshes.length && meshes[rebuilt] == allMeshes[i]) {
+                        cacheVertices[i] = builders[rebuilt++];
+                    } else if (cacheKeys[i] != null) {
+                        // kept meshes arent packed again, so only whats already cached stays cached
+                        cacheVertices[i] = cache.get(cacheKeys[i]);
+                    }
+                }
+                cache.save(cacheKeys, cacheVertices);
+            }
+        }
+        
+        /**
+         * Loads the mesh from the cache if its there, otherwise runs its build function
+         */
+        @Nullable
+        private static PackedVertices load(TrackedMesh mesh, @Nullable MeshCache cache) {
+            if (cache != null && mesh.cacheKey != null) {
+                final var cached = cache.get(mesh.cacheKey);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            return mesh.capture();
+        }
+        
+        /**
+         * Render thread only
+         *
+         * @return false if the vertices couldnt be remapped, and the mesh needs to be built again
+         */
+        private boolean remapSprites(TrackedMesh mesh, ReferenceOpenHashSet<SharedVertices> remappedVertices) {
+            final var vertices = mesh.vertices;
+            final var dependencies = mesh.dependencies;
+            assert vertices != null && dependencies != null;
+            // meshes sharing vertices were built from the same sprites, so its only remapped once
+            if (!remappedVertices.contains(vertices)) {
+                if (!remapUVs(vertices, dependencies)) {
+                    return false;
+                }
+                remappedVertices.add(vertices);
+                // the contents dont match the key anymore
+                sharedVertices.remove(vertices.key, vertices);
+            }
+            dependencies.spritesRemapped();
+            return true;
+        }
+        
+        /**
+         * Moves each quad's UVs from where its sprite was in the atlas to where it is now, the sprite is found from the center of the quad's UVs
+         * reads the vertices back from the GPU, so this stalls
+         *
+         * @return false if a quad's sprite couldnt be found, or there are textured vertices that arent quads, nothing is written then
+         */
+        private static boolean remapUVs(SharedVertices vertices, MeshDependencies dependencies) {
+            final var key = vertices.key;
+            final var allocation = vertices.allocation;
+            final var byteOffsets = key.byteOffsets(allocation.offset());
+            allocation.download();
+            final var byteBuf = allocation.buffer();
+            byteBuf.order(ByteOrder.nativeOrder());
+            // sprite of each quad, all found before anything is written
+            final var quadSprites = new int[key.renderTypes.length][];
+            for (int i = 0; i < key.renderTypes.length; i++) {
+                final var layout = key.layouts[i];
+                final int vertexCount = key.vertexCounts[i];
+                if (!layout.texture || vertexCount == 0) {
+                    continue;
+                }
+                if (key.indexCounts[i] != 0 || key.renderTypes[i].mode() != VertexFormat.Mode.QUADS) {
+                    return false;
+                }
+                final var sprites = new int[vertexCount / 4];
+                for (int quad = 0; quad < sprites.length; quad++) {
+                    float u = 0, v = 0;
+                    for (int j = 0; j < 4; j++) {
+                        final int vertexByte = byteOffsets[i] + (quad * 4 + j) * layout.byteSize;
+                        u += layout.readTexCoord(byteBuf, vertexByte, 0);
+                        v += layout.readTexCoord(byteBuf, vertexByte, 1);
+                    }
+                    sprites[quad] = dependencies.spriteAt(u / 4, v / 4);
+                    if (sprites[quad] == -1) {
+                        return false;
+                    }
+                }
+                quadSprites[i] = sprites;
+            }
+            for (int i = 0; i < key.renderTypes.length; i++) {
+                final var sprites = quadSprites[i];
+                if (sprites == null) {
+                    continue;
+                }
+                final var layout = key.layouts[i];
+                for (int quad = 0; quad < sprites.length; quad++) {
+                    for (int j = 0; j < 4; j++) {
+                        final int vertexByte = byteOffsets[i] + (quad * 4 + j) * layout.byteSize;
+                        layout.writeTexCoord(byteBuf, vertexByte, 0, dependencies.remapU(sprites[quad], layout.readTexCoord(byteBuf, vertexByte, 0)));
+                        layout.writeTexCoord(byteBuf, vertexByte, 1, dependencies.remapV(sprites[quad], layout.readTexCoord(byteBuf, vertexByte, 1)));
+                    }
+                }
             }
+            // all of it was read back, so its all valid to upload
+            allocation.dirty();
+            return true;
         }
         
         public void buildMesh(Mesh mesh) {
@@ -433,7 +1751,29 @@ public class InternalMesh implements Mesh {
             trackedMesh.rebuild();
         }
         
-    }
+        public void buildMeshAsync(Mesh mesh) {
+            var trackedMesh = getMeshInfo(mesh);
+            if (trackedMesh != null) {
+                trackedMesh.rebuildAsync();
+            }
+        }
+        
+        public void updateMesh(Mesh mesh, RenderType renderType, int vertexOffset, Consumer<VertexConsumer> writer) {
+            var trackedMesh = getMeshInfo(mesh);
+            if (trackedMesh != null) {
+                trackedMesh.update(renderType, vertexOffset, writer);
+            }
+        }
+        
+        /**
+         * Render thread only, called at the start of a frame
+         * commits every finished async build, freeing the vertices they replace and firing build callbacks
+         */
+        public void swapAsyncBuilds() {
+            asyncBuildQueue.runAll();
+        }
     
+    }
+
 }
 
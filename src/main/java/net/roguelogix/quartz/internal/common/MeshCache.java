@@ -0,0 +1,367 @@
+package net.roguelogix.quartz.internal.common;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.RenderType;
+import net.minecraft.client.renderer.Sheets;
+import net.minecraft.client.renderer.texture.MissingTextureAtlasSprite;
+import net.minecraft.client.renderer.texture.TextureAtlas;
+import net.minecraftforge.fml.ModList;
+import net.minecraftforge.fml.loading.FMLPaths;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.QuartzConfig;
+import net.roguelogix.quartz.internal.QuartzCore;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On disk cache of packed mesh vertex data, so build functions dont need to be run again on the next launch
+ * <p>
+ * one file per environment, identified by a hash of the loaded mods, selected resource packs, and block atlas layout
+ * entries are keyed by the mesh cache key, and read straight out of a memory mapped file
+ * a mapped file cant be replaced or deleted on windows, so each save writes the next generation of it, older files are deleted by a later open
+ * <p>
+ * file layout, native byte order
+ * int magic, int version, int entryCount
+ * per entry: string cacheKey, long hashA, long hashB, float[6] bounds, int renderTypeCount, per component (string render type name, int lod level, int layout ordinal, int vertexCount, int indexCount), int fullBlock, if set int[6] face vertex counts per component, int mergedFaces, vertex and index data
+ * vertex and index data is stored as packed at offset 0, so its components are aligned relative to the start of it
+ * strings are an int byte length followed by UTF-8 bytes
+ */
+@NonnullDefault
+public class MeshCache {
+    
+    private static final int MAGIC = 0x515A4D43;
+    private static final int VERSION = 8;
+    private static final String FILE_EXTENSION = ".bin";
+    
+    // render types are stored by name, so they need to be found again by name when loaded
+    private static final Map<String, RenderType> knownRenderTypes = new ConcurrentHashMap<>();
+    
+    static void renderTypeUsed(RenderType renderType) {
+        knownRenderTypes.putIfAbsent(renderType.toString(), renderType);
+    }
+    
+    private static void registerDefaultRenderTypes() {
+        for (var renderType : RenderType.chunkBufferLayers()) {
+            renderTypeUsed(renderType);
+        }
+        // what block models are rendered with outside of chunks
+        renderTypeUsed(Sheets.solidBlockSheet());
+        renderTypeUsed(Sheets.cutoutBlockSheet());
+        renderTypeUsed(Sheets.translucentCullBlockSheet());
+    }
+    
+    private final Path directory;
+    private final String environment;
+    private final Object2ObjectOpenHashMap<String, Entry> entries = new Object2ObjectOpenHashMap<>();
+    // of the newest file for this environment, -1 if there isnt one, save writes the one after it
+    private long generation = -1;
+    
+    private MeshCache(Path directory, String environment) {
+        this.directory = directory;
+        this.environment = environment;
+    }
+    
+    /**
+     * Render thread only, must be called after the block atlas is stitched
+     *
+     * @return cache for the current environment, null if disabled
+     */
+    @Nullable
+    static MeshCache open() {
+        if (!QuartzConfig.INSTANCE.meshCache) {
+            return null;
+        }
+        registerDefaultRenderTypes();
+        final String environment;
+        try {
+            environment = environmentHash();
+        } catch (NoSuchAlgorithmException e) {
+            QuartzCore.LOGGER.warn("Unable to hash mesh cache environment, mesh cache disabled", e);
+            return null;
+        }
+        final var cache = new MeshCache(FMLPaths.GAMEDIR.get().resolve("quartz").resolve("meshcache"), environment);
+        if (!Files.isDirectory(cache.directory)) {
+            return cache;
+        }
+        Path cacheFile = null;
+        final var staleFiles = new ObjectArrayList<Path>();
+        try (final var files = Files.list(cache.directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                final var fileName = file.getFileName().toString();
+                if (!fileName.endsWith(FILE_EXTENSION)) {
+                    continue;
+                }
+                final long fileGeneration = cache.generationOf(fileName);
+                if (fileGeneration > cache.generation) {
+                    if (cacheFile != null) {
+                        staleFiles.add(cacheFile);
+                    }
+                    cacheFile = file;
+                    cache.generation = fileGeneration;
+                } else {
+                    // older generations, and other environments, only the newest is kept
+                    staleFiles.add(file);
+                }
+            }
+        } catch (IOException e) {
+            QuartzCore.LOGGER.warn("Failed to list mesh cache directory " + cache.directory, e);
+            return cache;
+        }
+        for (var file : staleFiles) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // likely still mapped by an earlier reload, its tried again next time
+            }
+        }
+        if (cacheFile != null) {
+            try {
+                cache.load(cacheFile);
+            } catch (IOException | RuntimeException e) {
+                // whatever was read is unusable, everything gets rebuilt and the file rewritten
+                QuartzCore.LOGGER.warn("Failed to load mesh cache " + cacheFile, e);
+                cache.entries.clear();
+            }
+        }
+        return cache;
+    }
+    
+    /**
+     * @return generation of a file for this environment, -1 if its for another, or from before generations were used
+     */
+    private long generationOf(String fileName) {
+        final var prefix = environment + '.';
+        if (!fileName.startsWith(prefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName, prefix.length(), fileName.length() - FILE_EXTENSION.length(), 10);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private Path cacheFile(long generation) {
+        return directory.resolve(environment + '.' + generation + FILE_EXTENSION);
+    }
+    
+    private static String environmentHash() throws NoSuchAlgorithmException {
+        final var digest = MessageDigest.getInstance("SHA-256");
+        final var hashBuffer = ByteBuffer.allocate(Integer.BYTES);
+        hashBuffer.putInt(VERSION);
+        digest.update(hashBuffer.array());
+        for (var modInfo : ModList.get().getMods()) {
+            digest.update((modInfo.getModId() + '@' + modInfo.getVersion() + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        // order matters, later packs override earlier ones
+        for (var packID : Minecraft.getInstance().getResourcePackRepository().getSelectedIds()) {
+            digest.update((packID + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        // the missing sprite is always 16x16, so its UVs give both the atlas size and where things were placed
+        final var atlas = Minecraft.getInstance().getModelManager().getAtlas(TextureAtlas.LOCATION_BLOCKS);
+        final var missingSprite = atlas.getSprite(MissingTextureAtlasSprite.getLocation());
+        final var spriteBuffer = ByteBuffer.allocate(Float.BYTES * 4);
+        spriteBuffer.putFloat(missingSprite.getU0()).putFloat(missingSprite.getV0()).putFloat(missingSprite.getU1()).putFloat(missingSprite.getV1());
+        digest.update(spriteBuffer.array());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+    
+    private void load(Path cacheFile) throws IOException {
+        final ByteBuffer mapped;
+        try (final var channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            // mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.nativeOrder());
+        if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+            return;
+        }
+        final int entryCount = mapped.getInt();
+        for (int i = 0; i < entryCount; i++) {
+            final var cacheKey = readString(mapped);
+            final long hashA = mapped.getLong();
+            final long hashB = mapped.getLong();
+            final var bounds = new float[6];
+            for (int j = 0; j < bounds.length; j++) {
+                bounds[j] = mapped.getFloat();
+            }
+            final int renderTypeCount = mapped.getInt();
+            final var renderTypes = new RenderType[renderTypeCount];
+            final var lodLevels = new int[renderTypeCount];
+            final var layouts = new VertexLayout[renderTypeCount];
+            final var vertexCounts = new int[renderTypeCount];
+            final var indexCounts = new int[renderTypeCount];
+            boolean resolved = true;
+            for (int j = 0; j < renderTypeCount; j++) {
+                final var renderType = knownRenderTypes.get(readString(mapped));
+                if (renderType == null) {
+                    // not seen yet this launch, so this entry gets rebuilt
+                    resolved = false;
+                }
+                renderTypes[j] = renderType;
+                lodLevels[j] = mapped.getInt();
+                layouts[j] = VertexLayout.values()[mapped.getInt()];
+                vertexCounts[j] = mapped.getInt();
+                indexCounts[j] = mapped.getInt();
+            }
+            int[] faceVertexCounts = null;
+            if (mapped.getInt() != 0) {
+                faceVertexCounts = new int[renderTypeCount * InternalMesh.FACES.length];
+                for (int j = 0; j < faceVertexCounts.length; j++) {
+                    faceVertexCounts[j] = mapped.getInt();
+                }
+            }
+            final boolean mergedFaces = mapped.getInt() != 0;
+            final var key = new InternalMesh.ContentKey(renderTypes, lodLevels, layouts, vertexCounts, indexCounts, faceVertexCounts, mergedFaces, bounds, hashA, hashB);
+            final int dataSize = key.bytesRequired();
+            final var data = mapped.slice(mapped.position(), dataSize).order(ByteOrder.nativeOrder());
+            mapped.position(mapped.position() + dataSize);
+            if (resolved) {
+                entries.put(cacheKey, new Entry(key, data));
+            }
+        }
+    }
+    
+    /**
+     * Safe to call from any thread
+     */
+    @Nullable
+    InternalMesh.PackedVertices get(String cacheKey) {
+        return entries.get(cacheKey);
+    }
+    
+    /**
+     * Rewrites the cache file if anything in it is missing or unused
+     *
+     * @param cacheKeys: cache key of each mesh, null entries arent cached
+     * @param vertices:  vertex data of each mesh, null entries arent cached
+     */
+    void save(@Nullable String[] cacheKeys, @Nullable InternalMesh.PackedVertices[] vertices) {
+        // multiple live meshes may share a key, only one copy is needed
+        final var toWrite = new Object2ObjectLinkedOpenHashMap<String, InternalMesh.PackedVertices>();
+        boolean changed = false;
+        for (int i = 0; i < cacheKeys.length; i++) {
+            final var cacheKey = cacheKeys[i];
+            final var packedVertices = vertices[i];
+            if (cacheKey == null || packedVertices == null || toWrite.putIfAbsent(cacheKey, packedVertices) != null) {
+                continue;
+            }
+            if (!(packedVertices instanceof Entry)) {
+                changed = true;
+            }
+        }
+        if (!changed && toWrite.size() == entries.size()) {
+            return;
+        }
+        // written under a new name, the current file may still be mapped
+        final var cacheFile = cacheFile(generation + 1);
+        try {
+            Files.createDirectories(directory);
+            final var tempFile = directory.resolve(environment + ".tmp");
+            try (final var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final var header = ByteBuffer.allocate(Integer.BYTES * 3).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putInt(toWrite.size()).flip();
+                writeFully(channel, header);
+                for (var entry : toWrite.entrySet()) {
+                    writeFully(channel, serialize(entry.getKey(), entry.getValue()));
+                }
+            }
+            Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE);
+            generation++;
+        } catch (IOException e) {
+            // cache is optional, next launch will just build everything again
+            QuartzCore.LOGGER.warn("Failed to write mesh cache " + cacheFile, e);
+        }
+    }
+    
+    private static ByteBuffer serialize(String cacheKey, InternalMesh.PackedVertices packedVertices) {
+        final var key = packedVertices.contentKey();
+        final var cacheKeyBytes = cacheKey.getBytes(StandardCharsets.UTF_8);
+        final var renderTypeNames = new byte[key.renderTypes().length][];
+        int size = Integer.BYTES + cacheKeyBytes.length + Long.BYTES * 2 + Float.BYTES * 6 + Integer.BYTES;
+        for (int i = 0; i < renderTypeNames.length; i++) {
+            renderTypeNames[i] = key.renderTypes()[i].toString().getBytes(StandardCharsets.UTF_8);
+            size += Integer.BYTES + renderTypeNames[i].length + Integer.BYTES * 4;
+        }
+        size += Integer.BYTES;
+        if (key.faceVertexCounts() != null) {
+            size += key.faceVertexCounts().length * Integer.BYTES;
+        }
+        size += Integer.BYTES;
+        final int dataSize = packedVertices.bytesRequired();
+        size += dataSize;
+        
+        final var buffer = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        buffer.putInt(cacheKeyBytes.length).put(cacheKeyBytes);
+        buffer.putLong(key.hashA()).putLong(key.hashB());
+        for (float bound : key.bounds()) {
+            buffer.putFloat(bound);
+        }
+        buffer.putInt(renderTypeNames.length);
+        for (int i = 0; i < renderTypeNames.length; i++) {
+            buffer.putInt(renderTypeNames[i].length).put(renderTypeNames[i]);
+            buffer.putInt(key.lodLevels()[i]);
+            buffer.putInt(key.layouts()[i].ordinal());
+            buffer.putInt(key.vertexCounts()[i]);
+            buffer.putInt(key.indexCounts()[i]);
+        }
+        final var faceVertexCounts = key.faceVertexCounts();
+        buffer.putInt(faceVertexCounts == null ? 0 : 1);
+        if (faceVertexCounts != null) {
+            for (int faceVertexCount : faceVertexCounts) {
+                buffer.putInt(faceVertexCount);
+            }
+        }
+        buffer.putInt(key.mergedFaces() ? 1 : 0);
+        packedVertices.build(buffer.slice(buffer.position(), dataSize).order(ByteOrder.nativeOrder()), 0);
+        return buffer.position(size).flip();
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    
+    private static String readString(ByteBuffer buffer) {
+        final var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private record Entry(InternalMesh.ContentKey contentKey, ByteBuffer data) implements InternalMesh.PackedVertices {
+        
+        @Override
+        public void build(ByteBuffer masterBuffer, int baseOffset) {
+            // straight from the mapped file, no need to unpack anything, but alignment padding may differ at this offset
+            final var srcOffsets = contentKey.byteOffsets(0);
+            final var dstOffsets = contentKey.byteOffsets(baseOffset);
+            final var srcIndexOffsets = contentKey.indexByteOffsets(0);
+            final var dstIndexOffsets = contentKey.indexByteOffsets(baseOffset);
+            final var layouts = contentKey.layouts();
+            final var vertexCounts = contentKey.vertexCounts();
+            final var indexCounts = contentKey.indexCounts();
+            for (int i = 0; i < layouts.length; i++) {
+                masterBuffer.put(dstOffsets[i], data, srcOffsets[i], vertexCounts[i] * layouts[i].byteSize);
+                masterBuffer.put(dstIndexOffsets[i], data, srcIndexOffsets[i], indexCounts[i] * contentKey.indexByteSize(i));
+            }
+        }
+    }
+}
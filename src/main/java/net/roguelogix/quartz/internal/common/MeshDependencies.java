@@ -0,0 +1,237 @@
+package net.roguelogix.quartz.internal.common;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.color.block.BlockColors;
+import net.minecraft.client.renderer.block.model.BakedQuad;
+import net.minecraft.client.renderer.texture.TextureAtlas;
+import net.minecraft.client.renderer.texture.TextureAtlasSprite;
+import net.minecraft.client.resources.model.BakedModel;
+import net.minecraft.client.resources.model.ModelResourceLocation;
+import net.minecraft.core.Direction;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.RandomSource;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraftforge.client.model.data.ModelData;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * What a mesh was built from, recorded while its build function runs, so a resource reload only builds it again if that changed
+ * <p>
+ * models are compared by a hash of their quads, with UVs relative to their sprite, so a sprite moving in the atlas doesnt change it
+ * tinted quads of block states are also compared by the color they resolve to, as colormaps come from resource packs
+ * sprites are compared by where they are in the block atlas, if only that changed, the mesh's UVs can be remapped in place
+ * <p>
+ * a mesh is only tracked if it declared what its built from, and every vertex came from a block atlas baked quad
+ */
+@NonnullDefault
+public class MeshDependencies {
+    
+    public enum Change {
+        NONE,
+        SPRITES_MOVED,
+        REBUILD,
+    }
+    
+    private static final Direction[] DIRECTIONS = Direction.values();
+    // what ModelBlockRenderer seeds with, so random models pick the same quads as when built
+    private static final long MODEL_SEED = 42;
+    
+    private final ObjectOpenHashSet<BlockState> blockStates = new ObjectOpenHashSet<>();
+    private final ObjectOpenHashSet<ModelResourceLocation> models = new ObjectOpenHashSet<>();
+    // a mesh uses few sprites, so these are searched linearly
+    private final ObjectArrayList<ResourceLocation> spriteNames = new ObjectArrayList<>();
+    // u0, v0, u1, v1 of each sprite when the mesh was built, or last remapped
+    private final ObjectArrayList<float[]> spriteRects = new ObjectArrayList<>();
+    @Nullable
+    private TextureAtlasSprite lastSprite;
+    private boolean tracked = true;
+    private long modelHash;
+    // where each sprite is now, in the same order, set by check if they moved
+    @Nullable
+    private float[][] movedSprites;
+    
+    void blockState(BlockState blockState) {
+        blockStates.add(blockState);
+    }
+    
+    void model(ModelResourceLocation model) {
+        models.add(model);
+    }
+    
+    void sprite(TextureAtlasSprite sprite) {
+        if (sprite == lastSprite) {
+            // quads of a face usually share their sprite
+            return;
+        }
+        lastSprite = sprite;
+        if (!sprite.atlasLocation().equals(TextureAtlas.LOCATION_BLOCKS)) {
+            untracked();
+            return;
+        }
+        final var name = sprite.contents().name();
+        if (!spriteNames.contains(name)) {
+            spriteNames.add(name);
+            spriteRects.add(new float[]{sprite.getU0(), sprite.getV0(), sprite.getU1(), sprite.getV1()});
+        }
+    }
+    
+    void untracked() {
+        tracked = false;
+    }
+    
+    /**
+     * Called once the build function has finished, on the same thread
+     */
+    void finish() {
+        lastSprite = null;
+        if (blockStates.isEmpty() && models.isEmpty()) {
+            // quads could have come from anywhere
+            tracked = false;
+        }
+        if (tracked) {
+            modelHash = hashModels();
+        }
+    }
+    
+    /**
+     * Reads models and the block atlas, so must be called after they are reloaded, doesnt touch GL
+     */
+    Change check() {
+        if (!tracked || hashModels() != modelHash) {
+            return Change.REBUILD;
+        }
+        final var atlas = Minecraft.getInstance().getModelManager().getAtlas(TextureAtlas.LOCATION_BLOCKS);
+        final var movedSprites = new float[spriteNames.size()][];
+        boolean moved = false;
+        for (int i = 0; i < spriteNames.size(); i++) {
+            final var sprite = atlas.getSprite(spriteNames.get(i));
+            if (!sprite.contents().name().equals(spriteNames.get(i))) {
+                // its the missing sprite, the texture is gone
+                return Change.REBUILD;
+            }
+            final var rect = new float[]{sprite.getU0(), sprite.getV0(), sprite.getU1(), sprite.getV1()};
+            moved |= !Arrays.equals(rect, spriteRects.get(i));
+            movedSprites[i] = rect;
+        }
+        if (!moved) {
+            return Change.NONE;
+        }
+        this.movedSprites = movedSprites;
+        return Change.SPRITES_MOVED;
+    }
+    
+    /**
+     * @return index of the sprite the quad with this UV center used, -1 if none did
+     */
+    int spriteAt(float u, float v) {
+        for (int i = 0; i < spriteRects.size(); i++) {
+            final var rect = spriteRects.get(i);
+            if (u >= rect[0] && u <= rect[2] && v >= rect[1] && v <= rect[3]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Only valid after check returned SPRITES_MOVED
+     */
+    float remapU(int sprite, float u) {
+        assert movedSprites != null;
+        final var from = spriteRects.get(sprite);
+        final var to = movedSprites[sprite];
+        return to[0] + (u - from[0]) / (from[2] - from[0]) * (to[2] - to[0]);
+    }
+    
+    float remapV(int sprite, float v) {
+        assert movedSprites != null;
+        final var from = spriteRects.get(sprite);
+        final var to = movedSprites[sprite];
+        return to[1] + (v - from[1]) / (from[3] - from[1]) * (to[3] - to[1]);
+    }
+    
+    /**
+     * The mesh's UVs were remapped, so the new sprite positions are what it now depends on
+     */
+    void spritesRemapped() {
+        final var movedSprites = this.movedSprites;
+        if (movedSprites == null) {
+            return;
+        }
+        for (int i = 0; i < movedSprites.length; i++) {
+            spriteRects.set(i, movedSprites[i]);
+        }
+        this.movedSprites = null;
+    }
+    
+    private long hashModels() {
+        final var random = RandomSource.create();
+        final var blockRenderer = Minecraft.getInstance().getBlockRenderer();
+        final var modelManager = Minecraft.getInstance().getModelManager();
+        final var blockColors = Minecraft.getInstance().getBlockColors();
+        // summed, so the set order doesnt matter
+        long hash = 0;
+        for (var blockState : blockStates) {
+            hash += hashModel(blockRenderer.getBlockModel(blockState), blockState, blockColors, random);
+        }
+        for (var model : models) {
+            hash += hashModel(modelManager.getModel(model), null, blockColors, random);
+        }
+        return hash;
+    }
+    
+    private long hashModel(BakedModel model, @Nullable BlockState blockState, BlockColors blockColors, RandomSource random) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i <= DIRECTIONS.length; i++) {
+            final var direction = i == DIRECTIONS.length ? null : DIRECTIONS[i];
+            random.setSeed(MODEL_SEED);
+            for (var quad : model.getQuads(blockState, direction, random, ModelData.EMPTY, null)) {
+                hash = hashQuad(hash, quad, blockState, blockColors);
+            }
+        }
+        return hash;
+    }
+    
+    private long hashQuad(long hash, BakedQuad quad, @Nullable BlockState blockState, BlockColors blockColors) {
+        final var sprite = quad.getSprite();
+        hash = mix(hash, sprite.contents().name().hashCode());
+        hash = mix(hash, quad.getTintIndex());
+        if (quad.isTinted()) {
+            if (blockState != null) {
+                // without a level, this comes from the colormaps, so a reload can change it without changing the model
+                hash = mix(hash, blockColors.getColor(blockState, null, null, quad.getTintIndex()));
+            } else {
+                // the build function picks the color, so a change to it cant be seen
+                untracked();
+            }
+        }
+        hash = mix(hash, quad.getDirection().ordinal());
+        hash = mix(hash, quad.isShade() ? 1 : 0);
+        final var vertices = quad.getVertices();
+        final float spriteWidth = sprite.getU1() - sprite.getU0();
+        final float spriteHeight = sprite.getV1() - sprite.getV0();
+        // DefaultVertexFormat.BLOCK, UVs are at 4 and 5
+        for (int base = 0; base < vertices.length; base += 8) {
+            for (int j = 0; j < 8; j++) {
+                int value = vertices[base + j];
+                if (j == 4) {
+                    value = Math.round((Float.intBitsToFloat(value) - sprite.getU0()) / spriteWidth * 65536.0f);
+                } else if (j == 5) {
+                    value = Math.round((Float.intBitsToFloat(value) - sprite.getV0()) / spriteHeight * 65536.0f);
+                }
+                hash = mix(hash, value);
+            }
+        }
+        return hash;
+    }
+    
+    private static long mix(long hash, int value) {
+        hash = (hash ^ value) * 0x100000001B3L;
+        return hash ^ (hash >>> 29);
+    }
+}
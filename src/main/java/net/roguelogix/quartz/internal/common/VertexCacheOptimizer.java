@@ -0,0 +1,161 @@
+package net.roguelogix.quartz.internal.common;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.util.Arrays;
+
+/**
+ * Triangle reordering for post transform vertex cache hits, Tom Forsyth's linear-speed vertex cache optimisation
+ * https://tomforsyth1000.github.io/papers/fast_vert_cache_opt.html
+ */
+@NonnullDefault
+final class VertexCacheOptimizer {
+    
+    // modeled cache size, larger than most real caches, which is fine as the scoring decays across it
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+    
+    private VertexCacheOptimizer() {
+    }
+    
+    private static float vertexScore(int cachePosition, int remainingTriangles) {
+        if (remainingTriangles == 0) {
+            // nothing left to draw with it
+            return -1.0f;
+        }
+        float score = 0;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // used by the last triangle, fixed score so it doesnt matter which way round the triangle went in
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                final float scale = 1.0f / (CACHE_SIZE - 3);
+                score = (float) Math.pow(1.0f - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+            }
+        }
+        // vertices with few triangles left get priority, so they are finished off and dont leave lone triangles for later
+        score += VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+        return score;
+    }
+    
+    /**
+     * @param indices:     triangle list, every index must be less than vertexCount
+     * @param vertexCount: number of vertices referenced
+     * @return the same triangles, reordered
+     */
+    static int[] optimizeTriangles(int[] indices, int vertexCount) {
+        final int triangleCount = indices.length / 3;
+        
+        // per vertex list of triangles still to be drawn using it, the front remainingTriangles[v] entries are live
+        final var remainingTriangles = new int[vertexCount];
+        for (int index : indices) {
+            remainingTriangles[index]++;
+        }
+        final var adjacencyStart = new int[vertexCount + 1];
+        for (int i = 0; i < vertexCount; i++) {
+            adjacencyStart[i + 1] = adjacencyStart[i] + remainingTriangles[i];
+        }
+        final var adjacency = new int[indices.length];
+        final var adjacencyFill = Arrays.copyOf(adjacencyStart, vertexCount);
+        for (int i = 0; i < indices.length; i++) {
+            adjacency[adjacencyFill[indices[i]]++] = i / 3;
+        }
+        
+        final var cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        final var vertexScores = new float[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            vertexScores[i] = vertexScore(-1, remainingTriangles[i]);
+        }
+        final var triangleScores = new float[triangleCount];
+        final var emitted = new boolean[triangleCount];
+        int bestTriangle = -1;
+        for (int i = 0; i < triangleCount; i++) {
+            triangleScores[i] = vertexScores[indices[i * 3]] + vertexScores[indices[i * 3 + 1]] + vertexScores[indices[i * 3 + 2]];
+            if (bestTriangle == -1 || triangleScores[i] > triangleScores[bestTriangle]) {
+                bestTriangle = i;
+            }
+        }
+        
+        // three extra slots for the vertices pushed out by the triangle just added
+        var cache = new int[CACHE_SIZE + 3];
+        var newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        
+        final var output = new int[triangleCount * 3];
+        int outputIndex = 0;
+        // triangles are only ever searched for linearly when the cache runs dry, so this doesnt need to restart from 0
+        int scanStart = 0;
+        while (outputIndex < output.length) {
+            if (bestTriangle == -1) {
+                float bestScore = -Float.MAX_VALUE;
+                while (emitted[scanStart]) {
+                    scanStart++;
+                }
+                for (int i = scanStart; i < triangleCount; i++) {
+                    if (!emitted[i] && triangleScores[i] > bestScore) {
+                        bestScore = triangleScores[i];
+                        bestTriangle = i;
+                    }
+                }
+            }
+            
+            emitted[bestTriangle] = true;
+            int newCacheCount = 0;
+            for (int i = 0; i < 3; i++) {
+                final int vertex = indices[bestTriangle * 3 + i];
+                output[outputIndex++] = vertex;
+                newCache[newCacheCount++] = vertex;
+                // swap remove this triangle from the vertex's live triangles
+                final int start = adjacencyStart[vertex];
+                final int last = start + --remainingTriangles[vertex];
+                for (int j = start; j <= last; j++) {
+                    if (adjacency[j] == bestTriangle) {
+                        adjacency[j] = adjacency[last];
+                        adjacency[last] = bestTriangle;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < cacheCount; i++) {
+                final int vertex = cache[i];
+                if (vertex != newCache[0] && vertex != newCache[1] && vertex != newCache[2]) {
+                    newCache[newCacheCount++] = vertex;
+                }
+            }
+            
+            for (int i = 0; i < newCacheCount; i++) {
+                final int vertex = newCache[i];
+                cachePosition[vertex] = i < CACHE_SIZE ? i : -1;
+                vertexScores[vertex] = vertexScore(cachePosition[vertex], remainingTriangles[vertex]);
+            }
+            
+            // only triangles touching the cache changed score, and the next best is almost always one of them
+            bestTriangle = -1;
+            float bestScore = -Float.MAX_VALUE;
+            for (int i = 0; i < newCacheCount; i++) {
+                final int vertex = newCache[i];
+                final int start = adjacencyStart[vertex];
+                final int end = start + remainingTriangles[vertex];
+                for (int j = start; j < end; j++) {
+                    final int triangle = adjacency[j];
+                    final float score = vertexScores[indices[triangle * 3]] + vertexScores[indices[triangle * 3 + 1]] + vertexScores[indices[triangle * 3 + 2]];
+                    triangleScores[triangle] = score;
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTriangle = triangle;
+                    }
+                }
+            }
+            
+            final var temp = cache;
+            cache = newCache;
+            newCache = temp;
+            cacheCount = Math.min(newCacheCount, CACHE_SIZE);
+        }
+        return output;
+    }
+}
@@ -0,0 +1,118 @@
+package net.roguelogix.quartz.internal.common;
+
+import net.minecraft.client.renderer.RenderStateShard;
+import net.minecraft.client.renderer.RenderType;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+
+import java.nio.ByteBuffer;
+
+import static net.roguelogix.quartz.internal.MagicNumbers.FLOAT_BYTE_SIZE;
+import static net.roguelogix.quartz.internal.MagicNumbers.INT_BYTE_SIZE;
+
+/**
+ * How a render type's vertices are laid out in the vertex arena, picked per render type of each mesh when its built
+ * see vertexformat.md for the layouts themselves
+ */
+@NonnullDefault
+public enum VertexLayout {
+    FULL(false, true, true),
+    // positions in 1/64th block steps, so this only fits meshes within [-8, 8) blocks on a 1/4 pixel grid
+    COMPACT(true, true, true),
+    // render types without a lightmap never read the normal or light info
+    FULL_UNLIT(false, true, false),
+    COMPACT_UNLIT(true, true, false),
+    // render types without a texture never read the UVs
+    FULL_UNTEXTURED(false, false, true),
+    COMPACT_UNTEXTURED(true, false, true),
+    FULL_UNTEXTURED_UNLIT(false, false, false),
+    COMPACT_UNTEXTURED_UNLIT(true, false, false),
+    ;
+    
+    public final boolean compact;
+    public final boolean texture;
+    public final boolean lighting;
+    
+    public final int byteSize;
+    public final int colorOffset;
+    // -1 if not present
+    public final int texCoordOffset;
+    // -1 if not present
+    public final int lightInfoOffset;
+    // multiplier the vertex shader applies to the position attribute
+    public final float positionScale;
+    
+    VertexLayout(boolean compact, boolean texture, boolean lighting) {
+        this.compact = compact;
+        this.texture = texture;
+        this.lighting = lighting;
+        int offset = compact ? INT_BYTE_SIZE : FLOAT_BYTE_SIZE * 3;
+        colorOffset = offset;
+        offset += INT_BYTE_SIZE;
+        texCoordOffset = texture ? offset : -1;
+        offset += texture ? (compact ? INT_BYTE_SIZE : FLOAT_BYTE_SIZE * 2) : 0;
+        lightInfoOffset = lighting ? offset : -1;
+        offset += lighting ? INT_BYTE_SIZE * 2 : 0;
+        byteSize = offset;
+        positionScale = compact ? 1.0f / 64.0f : 1.0f;
+    }
+    
+    /**
+     * Smallest layout with every attribute the render type reads
+     */
+    static VertexLayout of(RenderType renderType, boolean compact) {
+        boolean texture = true;
+        boolean lighting = true;
+        if (renderType instanceof RenderType.CompositeRenderType compositeRenderType) {
+            final var compositeState = compositeRenderType.state();
+            texture = compositeState.textureState != RenderStateShard.NO_TEXTURE;
+            lighting = compositeState.lightmapState != RenderStateShard.NO_LIGHTMAP;
+        }
+        for (var layout : values()) {
+            if (layout.compact == compact && layout.texture == texture && layout.lighting == lighting) {
+                return layout;
+            }
+        }
+        throw new IllegalStateException();
+    }
+    
+    private static final float COMPACT_POSITION_MULTIPLIER = 64.0f;
+    // 1/4096th of a block, well below anything visible
+    private static final float COMPACT_POSITION_TOLERANCE = 1.0f / 64.0f;
+    
+    static boolean compactPositionFits(float value) {
+        final float scaled = value * COMPACT_POSITION_MULTIPLIER;
+        final float rounded = Math.round(scaled);
+        return rounded >= -512 && rounded <= 511 && Math.abs(scaled - rounded) <= COMPACT_POSITION_TOLERANCE;
+    }
+    
+    static int compactPosition(float value) {
+        return Math.round(value * COMPACT_POSITION_MULTIPLIER) & 0x3FF;
+    }
+    
+    static boolean compactTexCoordFits(float value) {
+        return value >= 0 && value <= 1;
+    }
+    
+    static short compactTexCoord(float value) {
+        return (short) Math.round(value * 65535.0f);
+    }
+    
+    /**
+     * @param vertexByte: byte offset of the vertex in the buffer
+     * @param component:  0 for U, 1 for V
+     */
+    float readTexCoord(ByteBuffer buffer, int vertexByte, int component) {
+        if (compact) {
+            return (buffer.getShort(vertexByte + texCoordOffset + component * Short.BYTES) & 0xFFFF) / 65535.0f;
+        }
+        return buffer.getFloat(vertexByte + texCoordOffset + component * FLOAT_BYTE_SIZE);
+    }
+    
+    void writeTexCoord(ByteBuffer buffer, int vertexByte, int component, float value) {
+        if (compact) {
+            buffer.putShort(vertexByte + texCoordOffset + component * Short.BYTES, compactTexCoord(value));
+        } else {
+            buffer.putFloat(vertexByte + texCoordOffset + component * FLOAT_BYTE_SIZE, value);
+        }
+    }
+}
@@ -1,20 +1,19 @@
 package net.roguelogix.quartz.internal.gl;
 
-import com.mojang.datafixers.util.Pair;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.internal.Buffer;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.B3DStateHelper;
+import net.roguelogix.quartz.internal.common.DirtyPageTracker;
 import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.system.libc.LibCString;
 
-import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Collections;
 import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL33C.*;
@@ -22,38 +21,71 @@ import static org.lwjgl.system.MemoryUtil.memAddress;
 
 @NonnullDefault
 public class GLBuffer implements Buffer {
-    public class Allocation implements Buffer.Allocation {
-        private record Info(int offset, int size) implements Comparable<Info> {
-            @Override
-            public int compareTo(@Nonnull Info info) {
-                return Integer.compare(offset, info.offset);
-            }
-            
-            private Pair<Info, Info> split(int size) {
-                if (size > this.size) {
-                    throw new IllegalArgumentException("Cannot split allocation to larger size");
-                }
-                if (size == this.size) {
-                    return new Pair<>(new Info(this.offset, size), null);
-                }
-                return new Pair<>(new Info(this.offset, size), new Info(this.offset + size, this.size - size));
-            }
+    
+    /**
+     * Physical block of the buffer, either backing a live allocation or sitting in the free lists
+     * blocks are never reused, a block goes live -> free -> dead, or free -> dead, and is then dropped
+     * this lets stale references (cleaners, old allocation objects) be detected without a search
+     */
+    private static final class Block {
+        private final int offset;
+        private final int size;
+        private final boolean free;
+        private boolean dead = false;
+        // live blocks only, so compaction can move the allocation along with its block
+        @Nullable
+        private WeakReference<Allocation> allocation;
+        
+        @Nullable
+        private Block prevPhysical;
+        @Nullable
+        private Block nextPhysical;
+        @Nullable
+        private Block prevFree;
+        @Nullable
+        private Block nextFree;
+        
+        private Block(int offset, int size, boolean free) {
+            this.offset = offset;
+            this.size = size;
+            this.free = free;
+        }
+        
+        private int end() {
+            return offset + size;
         }
+    }
+    
+    public class Allocation implements Buffer.Allocation {
         
-        private final Info info;
+        // holder, compaction moves the allocation to a new block, and the cleaner needs to free whichever is current
+        private final Block[] block = new Block[1];
+        private int alignment;
         private final ByteBuffer[] byteBuffer;
         private final ObjectArrayList<Consumer<Buffer.Allocation>> reallocCallbacks = new ObjectArrayList<>();
         private final ObjectArrayList<Consumer<Buffer.Allocation>> sliceCallbacks;
         private final Runnable slicer;
+        // write only buffers only, released once uploaded unless the allocation is locked
+        @Nullable
+        private ByteBuffer stagingBuffer;
+        private int stagingDirtyStart = Integer.MAX_VALUE;
+        private int stagingDirtyEnd = 0;
+        private boolean locked = false;
         
-        protected Allocation(Info info) {
-            this.info = info;
+        protected Allocation(Block initialBlock, int alignment) {
+            final var block = this.block;
+            block[0] = initialBlock;
+            this.alignment = alignment;
             var allocator = GLBuffer.this;
             final var byteBuffer = new ByteBuffer[1];
             final var sliceCallbacks = new ObjectArrayList<Consumer<Buffer.Allocation>>();
             final var weakRef = new WeakReference<>(this);
             Runnable slicer = () -> {
-                byteBuffer[0] = allocator.byteBuffer[0].slice(info.offset, info.size);
+                if (allocator.writeOnly) {
+                    // nothing to slice, writes go through the staging buffer
+                    return;
+                }
+                byteBuffer[0] = allocator.byteBuffer[0].slice(block[0].offset, block[0].size);
                 byteBuffer[0].order(ByteOrder.nativeOrder());
                 final var alloc = weakRef.get();
                 if(alloc == null){
@@ -63,8 +95,9 @@ public class GLBuffer implements Buffer {
                     sliceCallbacks.get(i).accept(alloc);
                 }
             };
+            initialBlock.allocation = weakRef;
             QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(() -> {
-                allocator.free(info);
+                allocator.free(block[0]);
                 allocator.slicers.remove(slicer);
             }));
             slicer.run();
@@ -75,28 +108,43 @@ public class GLBuffer implements Buffer {
         }
         
         public void delete() {
-            free(info);
-            slicers.remove(slicer);
+            free(this);
         }
         
         public ByteBuffer buffer() {
+            if (writeOnly) {
+                return stagingBuffer().rewind();
+            }
             return byteBuffer[0].rewind();
         }
         
+        private ByteBuffer stagingBuffer() {
+            if (stagingBuffer == null) {
+                stagingBuffer = MemoryUtil.memAlloc(block[0].size);
+                stagedAllocations.add(this);
+            }
+            return stagingBuffer;
+        }
+        
         public int offset() {
-            return info.offset;
+            return block[0].offset;
         }
         
         public int size() {
-            return info.size;
+            return block[0].size;
         }
         
         public void dirty() {
-            dirtyRange(0, info.size);
+            dirtyRange(0, block[0].size);
         }
         
         public void dirtyRange(int offset, int size) {
-            GLBuffer.this.dirtyRange(info.offset + offset, info.offset + offset + size);
+            if (writeOnly) {
+                stagingDirtyStart = Math.min(stagingDirtyStart, offset);
+                stagingDirtyEnd = Math.max(stagingDirtyEnd, offset + size);
+                return;
+            }
+            GLBuffer.this.dirtyRange(block[0].offset + offset, block[0].offset + offset + size);
         }
         
         public GLBuffer allocator() {
@@ -104,6 +152,12 @@ public class GLBuffer implements Buffer {
         }
         
         public void copy(int srcOffset, int dstOffset, int size) {
+            if (writeOnly) {
+                // staged writes need to be in the GL buffer before they can be copied from it
+                uploadStaging(!locked);
+                copyGPU(block[0].offset + srcOffset, block[0].offset + dstOffset, size);
+                return;
+            }
             // is this safe? *no*
             // is this the fastest option? *no*
             // does LWJGL give me a better option, *no, not really*
@@ -126,61 +180,152 @@ public class GLBuffer implements Buffer {
         
         @Override
         public void lock() {
-        
+            locked = true;
         }
         
         @Override
         public void unlock() {
+            locked = false;
+        }
+        
+        @Override
+        public void download() {
+            if (!writeOnly) {
+                return;
+            }
+            // staged writes need to be in the GL buffer, or theyd be overwritten with older contents
+            uploadStaging(false);
+            final var stagingBuffer = stagingBuffer();
+            B3DStateHelper.bindArrayBuffer(buffer[0]);
+            nglGetBufferSubData(GL_ARRAY_BUFFER, block[0].offset, block[0].size, MemoryUtil.memAddress0(stagingBuffer));
+        }
         
+        /**
+         * Writes the dirty range of the staging buffer to the GL buffer
+         *
+         * @param release: free the staging buffer afterwards
+         */
+        private void uploadStaging(boolean release) {
+            if (stagingBuffer == null) {
+                return;
+            }
+            final int size = Math.min(stagingDirtyEnd, block[0].size) - stagingDirtyStart;
+            if (size > 0) {
+                B3DStateHelper.bindArrayBuffer(buffer[0]);
+                // position is wherever the writer left it, so that cant be included in the address
+                nglBufferSubData(GL_ARRAY_BUFFER, block[0].offset + stagingDirtyStart, size, MemoryUtil.memAddress0(stagingBuffer) + stagingDirtyStart);
+            }
+            stagingDirtyStart = Integer.MAX_VALUE;
+            stagingDirtyEnd = 0;
+            if (release) {
+                releaseStaging();
+            }
+        }
+        
+        private void releaseStaging() {
+            if (stagingBuffer == null) {
+                return;
+            }
+            MemoryUtil.memFree(stagingBuffer);
+            stagingBuffer = null;
+            stagingDirtyStart = Integer.MAX_VALUE;
+            stagingDirtyEnd = 0;
+            stagedAllocations.remove(this);
         }
         
         public int compareTo(Allocation other) {
-            return Integer.compare(info.offset, other.info.offset);
+            return Integer.compare(block[0].offset, other.block[0].offset);
+        }
+        
+        private void moveTo(Block newBlock) {
+            newBlock.allocation = block[0].allocation;
+            block[0] = newBlock;
+            slicer.run();
+            for (int i = 0; i < reallocCallbacks.size(); i++) {
+                reallocCallbacks.get(i).accept(this);
+            }
         }
     }
     
-    private final int buffer;
+    // two level segregated fit free lists
+    // first level is the power of two size class, second level linearly subdivides it into SL_COUNT lists
+    // sizes below SL_COUNT all land in first level 0, one list per size
+    private static final int SL_LOG2 = 4;
+    private static final int SL_COUNT = 1 << SL_LOG2;
+    private static final int FL_COUNT = Integer.SIZE - SL_LOG2;
+    
+    // holder so the cleaner deletes whatever buffer is current at the time
+    private final int[] buffer = new int[1];
     private final int usage;
+    private final int initialSize;
     private int size;
+    // no CPU side mirror for write only buffers, allocations are written through a staging buffer instead
+    private final boolean writeOnly;
     private final ByteBuffer[] byteBuffer = new ByteBuffer[1];
+    private final ReferenceOpenHashSet<Allocation> stagedAllocations = new ReferenceOpenHashSet<>();
     
-    private final ObjectArrayList<Runnable> slicers = new ObjectArrayList<>();
-    private final ObjectArrayList<Allocation.Info> liveAllocations = new ObjectArrayList<>();
-    private final ObjectArrayList<Allocation.Info> freeAllocations = new ObjectArrayList<>() {
-        @Override
-        public boolean add(@Nullable Allocation.Info allocation) {
-            if (allocation == null) {
-                return false;
-            }
-            int index = Collections.binarySearch(this, allocation);
-            if (index < 0) {
-                index = ~index;
-                super.add(index, allocation);
-            } else {
-                super.set(index, allocation);
-            }
-            return true;
-        }
-    };
+    private final ReferenceOpenHashSet<Runnable> slicers = new ReferenceOpenHashSet<>();
+    
+    private int firstLevelBitmap = 0;
+    private final int[] secondLevelBitmaps = new int[FL_COUNT];
+    private final Block[] freeLists = new Block[FL_COUNT * SL_COUNT];
+    private Block firstBlock;
+    private Block lastBlock;
+    private int freeBlockCount = 0;
+    // no free block compaction could fill starts below this offset, so each call resumes from here instead of the first block
+    private int compactOffset = 0;
+    // block containing compactOffset, null if its the end of the buffer
+    @Nullable
+    private Block compactCursor;
     
     private final ObjectArrayList<Consumer<Buffer>> reallocCallbacks = new ObjectArrayList<>();
+    private final ObjectArrayList<Consumer<Buffer>> gpuReallocCallbacks = new ObjectArrayList<>();
     
     public GLBuffer(boolean dynamic, int initialSize) {
+        this(initialSize, dynamic ? GL_DYNAMIC_DRAW : GL_STATIC_DRAW, false);
+    }
+    
+    /**
+     * Write only buffers keep no CPU side copy of their contents
+     * an allocation's buffer() is a staging buffer with undefined contents, freed once it is uploaded at the next flush
+     * for data that is written once and only ever read by the GPU
+     */
+    public GLBuffer(boolean dynamic, int initialSize, boolean writeOnly) {
+        this(initialSize, dynamic ? GL_DYNAMIC_DRAW : GL_STATIC_DRAW, writeOnly);
+    }
+    
+    /**
+     * @param usage: usage hint for the GL buffer, 0 if the subclass manages the GPU side storage itself
+     */
+    protected GLBuffer(int initialSize, int usage) {
+        this(initialSize, usage, false);
+    }
+    
+    private GLBuffer(int initialSize, int usage, boolean writeOnly) {
         if (initialSize <= 0) {
             throw new IllegalArgumentException("Initial buffer size must be greater than 0");
         }
+        this.initialSize = initialSize;
         size = initialSize;
-        usage = dynamic ? GL_DYNAMIC_DRAW : GL_STATIC_DRAW;
-        buffer = glGenBuffers();
-        B3DStateHelper.bindArrayBuffer(buffer);
-        glBufferData(GL_ARRAY_BUFFER, initialSize, usage);
-        byteBuffer[0] = MemoryUtil.memAlloc(initialSize);
-        freeAllocations.add(new Allocation.Info(0, initialSize));
+        this.usage = usage;
+        this.writeOnly = writeOnly;
+        if (usage != 0) {
+            buffer[0] = glGenBuffers();
+            B3DStateHelper.bindArrayBuffer(buffer[0]);
+            glBufferData(GL_ARRAY_BUFFER, initialSize, usage);
+        }
+        if (!writeOnly) {
+            byteBuffer[0] = MemoryUtil.memAlloc(initialSize);
+        }
+        dirtyPages.resize(initialSize);
+        lastBlock = new Block(0, initialSize, true);
+        firstBlock = lastBlock;
+        insertFreeBlock(lastBlock);
         var bufArray = byteBuffer;
-        int buffer = this.buffer;
+        var buffer = this.buffer;
         QuartzCore.CLEANER.register(this, () -> {
             MemoryUtil.memFree(bufArray[0]);
-            QuartzCore.deletionQueue.enqueue(() -> glDeleteBuffers(buffer));
+            QuartzCore.deletionQueue.enqueue(() -> glDeleteBuffers(buffer[0]));
         });
     }
     
@@ -197,62 +342,24 @@ public class GLBuffer implements Buffer {
     }
     
     public Allocation alloc(final int size, final int alignment) {
-        final int alignmentBitmask = alignment - 1;
-        collapseFreeAllocations();
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            var freeAlloc = freeAllocations.get(i);
-            // next value guaranteed to be at *most* one less than the next alignment, then bit magic because powers of two to round down without a divide
-            final int nextValidAlignment = (freeAlloc.offset + (alignment - 1)) & (-alignment);
-            final int alignmentWaste = nextValidAlignment - freeAlloc.offset;
-            if (freeAlloc.size - alignmentWaste < size) {
-                // wont fit, *neeeeeeeeeeeext*
-                continue;
-            }
-            freeAllocations.remove(i);
-            if (alignmentWaste > 0) {
-                final var newAllocs = freeAlloc.split(alignmentWaste);
-                // not concurrent modification because this will always return
-                freeAllocations.add(newAllocs.getFirst());
-                freeAlloc = newAllocs.getSecond();
-            }
-            if (freeAlloc.size > size) {
-                final var newAllocs = freeAlloc.split(size);
-                // not concurrent modification because this will always return
-                freeAlloc = newAllocs.getFirst();
-                freeAllocations.add(newAllocs.getSecond());
-            }
-            
-            liveAllocations.add(freeAlloc);
-            return new Allocation(freeAlloc);
-        }
-        
-        int endOffset = this.size;
-        int minSize = this.size + size;
-        if (!freeAllocations.isEmpty()) {
-            var endAlloc = freeAllocations.get(freeAllocations.size() - 1);
-            if (endAlloc.offset + endAlloc.size == this.size) {
-                minSize -= endAlloc.size;
-                endOffset = endAlloc.offset;
-            }
-        }
-        int alignmentWaste = endOffset & alignmentBitmask;
-        minSize += alignmentWaste;
-        
-        expand(minSize);
-        
-        var alloc = freeAllocations.pop();
-        if (alignmentWaste > 0) {
-            final var newAllocs = alloc.split(alignmentWaste);
-            freeAllocations.add(newAllocs.getFirst());
-            alloc = newAllocs.getSecond();
-        }
-        if (alloc.size > size) {
-            final var newAllocs = alloc.split(size);
-            alloc = newAllocs.getFirst();
-            freeAllocations.add(newAllocs.getSecond());
+        var block = findFreeBlock(size, alignment);
+        if (block == null) {
+            // nothing free fits, grow the buffer so the end of it does
+            final int endOffset = lastBlock.free ? lastBlock.offset : this.size;
+            final int alignedEndOffset = alignUp(endOffset, alignment);
+            expand(Math.max(alignedEndOffset + size, this.size + 1));
+            block = lastBlock;
+        }
+        return new Allocation(claimFreeBlock(block, size, alignment), alignment);
+    }
+    
+    @Nullable
+    public Allocation tryAlloc(int size, int alignment) {
+        final var block = findFreeBlock(size, alignment);
+        if (block == null) {
+            return null;
         }
-        liveAllocations.add(alloc);
-        return new Allocation(alloc);
+        return new Allocation(claimFreeBlock(block, size, alignment), alignment);
     }
     
     public Allocation realloc(@Nullable Allocation allocation, int newSize) {
@@ -275,122 +382,84 @@ public class GLBuffer implements Buffer {
             // not an allocation from this buffer
             throw new IllegalArgumentException("Cannot realloc allocation from another buffer");
         }
-        
-        var liveIndex = liveAllocations.indexOf(allocation.info);
-        if (liveIndex == -1) {
+        final var block = allocation.block[0];
+        if (block.dead) {
             throw new IllegalArgumentException("Cannot realloc non-live allocation");
         }
-        if (newSize <= allocation.info.size && (allocation.info.offset & (alignment - 1)) == 0) {
+        final boolean aligned = (block.offset & (alignment - 1)) == 0;
+        if (aligned && newSize == block.size) {
             // this allocation already meets size and alignment requirements
-            if (newSize == allocation.info.size) {
-                return allocation;
-            }
-            var removed = liveAllocations.pop();
-            if (liveIndex != liveAllocations.size()) {
-                liveAllocations.set(liveIndex, removed);
-            }
-            var newAllocInfos = allocation.info.split(newSize);
-            var newAllocInfo = newAllocInfos.getFirst();
-            var freeAllocInfo = newAllocInfos.getSecond();
-            var newAlloc = new Allocation(newAllocInfo);
-            freeAllocations.add(freeAllocInfo);
-            liveAllocations.add(newAllocInfo);
-            long dstAddress = memAddress(newAlloc.byteBuffer[0]);
-            long srcAddress = memAddress(allocation.byteBuffer[0]);
-            int size = Math.min(newAlloc.byteBuffer[0].remaining(), allocation.byteBuffer[0].remaining());
-            if (srcAddress != dstAddress) {
-                LibCString.nmemmove(dstAddress, srcAddress, size);
-                newAlloc.dirty();
-            }
-            for (int i = 0; i < allocation.reallocCallbacks.size(); i++) {
-                newAlloc.addReallocCallback(allocation.reallocCallbacks.get(i));
-            }
-            for (int i = 0; i < allocation.sliceCallbacks.size(); i++) {
-                newAlloc.addBufferSliceCallback(allocation.sliceCallbacks.get(i));
-            }
-            return newAlloc;
+            allocation.alignment = Math.max(allocation.alignment, alignment);
+            return allocation;
         }
+        // the allocation is replaced, so its staged writes need to be in the GL buffer to be moved along with it
+        allocation.uploadStaging(true);
         
-        collapseFreeAllocations();
-        Allocation.Info precedingAlloc = null;
-        Allocation.Info followingAlloc = null;
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            var freeAllocation = freeAllocations.get(i);
-            if (freeAllocation.offset + freeAllocation.size == allocation.info.offset) {
-                precedingAlloc = freeAllocation;
-                continue;
-            }
-            if (freeAllocation.offset == allocation.info.offset + allocation.info.size) {
-                followingAlloc = freeAllocation;
-                break;
-            }
-            if (freeAllocation.offset > allocation.info.offset) {
-                break;
-            }
-        }
-        int fullBlockOffset = precedingAlloc == null ? allocation.info.offset : precedingAlloc.offset;
-        final int nextValidAlignment = (fullBlockOffset + (alignment - 1)) & (-alignment);
-        final int alignmentWaste = nextValidAlignment - fullBlockOffset;
-        int fullBlockSize = allocation.info.size;
-        if (precedingAlloc != null) {
-            fullBlockSize += precedingAlloc.size;
-        }
-        if (followingAlloc != null) {
-            fullBlockSize += followingAlloc.size;
-        } else if (allocation.info.offset + allocation.info.size == size) {
+        // physical neighbors are free to be absorbed, if they exist
+        var prevBlock = block.prevPhysical;
+        var nextBlock = block.nextPhysical;
+        int spanStart = prevBlock != null && prevBlock.free ? prevBlock.offset : block.offset;
+        int spanEnd = nextBlock != null && nextBlock.free ? nextBlock.end() : block.end();
+        int newOffset = aligned && block.offset + newSize <= spanEnd ? block.offset : alignUp(spanStart, alignment);
+        if (newOffset + newSize > spanEnd && spanEnd == size) {
             // end allocation, so I can resize it to whatever is needed
-            freeAllocations.remove(precedingAlloc);
-            int minSize = fullBlockOffset + alignmentWaste + newSize;
-            expand(minSize);
-            followingAlloc = freeAllocations.get(freeAllocations.size() - 1);
-            fullBlockSize += followingAlloc.size;
+            expand(newOffset + newSize);
+            nextBlock = block.nextPhysical;
+            assert nextBlock != null && nextBlock.free;
+            spanEnd = nextBlock.end();
         }
         
-        if (fullBlockSize - alignmentWaste >= newSize) {
+        if (newOffset + newSize <= spanEnd) {
             // ok, available memory exists around where the data currently is
-            freeAllocations.remove(precedingAlloc);
-            freeAllocations.remove(followingAlloc);
-            var newAllocInfo = new Allocation.Info(fullBlockOffset, fullBlockSize);
-            if (alignmentWaste > 0) {
-                final var newAllocs = newAllocInfo.split(alignmentWaste);
-                freeAllocations.add(newAllocs.getFirst());
-                newAllocInfo = newAllocs.getSecond();
-            }
-            if (newAllocInfo.size > newSize) {
-                final var newAllocs = newAllocInfo.split(newSize);
-                newAllocInfo = newAllocs.getFirst();
-                freeAllocations.add(newAllocs.getSecond());
+            if (prevBlock != null && prevBlock.free) {
+                removeFreeBlock(prevBlock);
+                prevBlock.dead = true;
+                prevBlock = prevBlock.prevPhysical;
             }
-            var newAlloc = new Allocation(newAllocInfo);
-            var removed = liveAllocations.pop();
-            if (liveIndex != liveAllocations.size()) {
-                liveAllocations.set(liveIndex, removed);
+            if (nextBlock != null && nextBlock.free) {
+                removeFreeBlock(nextBlock);
+                nextBlock.dead = true;
+                nextBlock = nextBlock.nextPhysical;
             }
-            liveAllocations.add(newAllocInfo);
-            long dstAddress = memAddress(newAlloc.byteBuffer[0]);
-            long srcAddress = memAddress(allocation.byteBuffer[0]);
-            int size = Math.min(newAlloc.byteBuffer[0].remaining(), allocation.byteBuffer[0].remaining());
-            if (srcAddress != dstAddress) {
-                LibCString.nmemmove(dstAddress, srcAddress, size);
-                newAlloc.dirty();
+            block.dead = true;
+            if (newOffset > spanStart) {
+                final var paddingBlock = new Block(spanStart, newOffset - spanStart, true);
+                linkBlock(prevBlock, paddingBlock, nextBlock);
+                insertFreeBlock(paddingBlock);
+                prevBlock = paddingBlock;
             }
-            for (int i = 0; i < allocation.reallocCallbacks.size(); i++) {
-                newAlloc.addReallocCallback(allocation.reallocCallbacks.get(i));
+            final var newBlock = new Block(newOffset, newSize, false);
+            linkBlock(prevBlock, newBlock, nextBlock);
+            if (newBlock.end() < spanEnd) {
+                final var tailBlock = new Block(newBlock.end(), spanEnd - newBlock.end(), true);
+                linkBlock(newBlock, tailBlock, nextBlock);
+                insertFreeBlock(tailBlock);
             }
-            for (int i = 0; i < allocation.sliceCallbacks.size(); i++) {
-                newAlloc.addBufferSliceCallback(allocation.sliceCallbacks.get(i));
+            // data moves before the callbacks see the new allocation
+            if (newOffset != block.offset) {
+                moveData(block.offset, newOffset, Math.min(block.size, newSize));
             }
-            return newAlloc;
+            return replaceAllocation(allocation, newBlock, alignment);
         }
         
         // SOL, allocate a new block and use that
         var newAlloc = alloc(newSize, alignment);
-        long dstAddress = memAddress(newAlloc.byteBuffer[0]);
-        long srcAddress = memAddress(allocation.byteBuffer[0]);
-        int size = Math.min(newAlloc.byteBuffer[0].remaining(), allocation.byteBuffer[0].remaining());
-        LibCString.nmemcpy(dstAddress, srcAddress, size);
-        newAlloc.dirty();
-        free(allocation);
+        moveData(block.offset, newAlloc.offset(), Math.min(block.size, newSize));
+        free(block);
+        slicers.remove(allocation.slicer);
+        for (int i = 0; i < allocation.reallocCallbacks.size(); i++) {
+            newAlloc.addReallocCallback(allocation.reallocCallbacks.get(i));
+        }
+        for (int i = 0; i < allocation.sliceCallbacks.size(); i++) {
+            newAlloc.addBufferSliceCallback(allocation.sliceCallbacks.get(i));
+        }
+        return newAlloc;
+    }
+    
+    private Allocation replaceAllocation(Allocation allocation, Block newBlock, int alignment) {
+        // the old allocation is dead, so its slice doesnt need to follow the buffer anymore
+        slicers.remove(allocation.slicer);
+        var newAlloc = new Allocation(newBlock, alignment);
         for (int i = 0; i < allocation.reallocCallbacks.size(); i++) {
             newAlloc.addReallocCallback(allocation.reallocCallbacks.get(i));
         }
@@ -402,7 +471,11 @@ public class GLBuffer implements Buffer {
     
     @Override
     public void addGPUReallocCallback(Consumer<Buffer> consumer) {
-        // GL doesnt realloc on the GPU
+        gpuReallocCallbacks.add(consumer);
+    }
+    
+    protected void gpuRealloced() {
+        gpuReallocCallbacks.forEach(c -> c.accept(this));
     }
     
     @Override
@@ -413,47 +486,83 @@ public class GLBuffer implements Buffer {
     }
     
     public void free(Allocation allocation) {
-        free(allocation.info);
+        if (allocation.allocator() != this) {
+            return;
+        }
+        free(allocation.block[0]);
+        slicers.remove(allocation.slicer);
+        allocation.releaseStaging();
     }
     
-    public void free(Allocation.Info allocation) {
-        var index = liveAllocations.indexOf(allocation);
-        if (index == -1) {
+    private void free(Block block) {
+        if (block.dead || block.free) {
+            // already freed, cleaners will hit this for anything freed manually
             return;
         }
-        var removed = liveAllocations.pop();
-        if (index != liveAllocations.size()) {
-            liveAllocations.set(index, removed);
-        }
-        freeAllocations.add(allocation);
-        index = freeAllocations.indexOf(allocation);
-        collapseFreeAllocationWithNext(index - 1);
-        collapseFreeAllocationWithNext(index);
+        block.dead = true;
+        int offset = block.offset;
+        int end = block.end();
+        var prevBlock = block.prevPhysical;
+        var nextBlock = block.nextPhysical;
+        if (prevBlock != null && prevBlock.free) {
+            removeFreeBlock(prevBlock);
+            prevBlock.dead = true;
+            offset = prevBlock.offset;
+            prevBlock = prevBlock.prevPhysical;
+        }
+        if (nextBlock != null && nextBlock.free) {
+            removeFreeBlock(nextBlock);
+            nextBlock.dead = true;
+            end = nextBlock.end();
+            nextBlock = nextBlock.nextPhysical;
+        }
+        final var freeBlock = new Block(offset, end - offset, true);
+        linkBlock(prevBlock, freeBlock, nextBlock);
+        insertFreeBlock(freeBlock);
     }
     
-    private int minDirty = Integer.MAX_VALUE;
-    private int maxDirty = 0;
+    protected final DirtyPageTracker dirtyPages = new DirtyPageTracker(GLConfig.INSTANCE.BUFFER_DIRTY_PAGE_SIZE);
     
     @Override
     public void dirtyAll() {
-        minDirty = 0;
-        maxDirty = size;
+        if (writeOnly) {
+            // only whats staged can be uploaded
+            for (var allocation : stagedAllocations) {
+                allocation.dirty();
+            }
+            return;
+        }
+        dirtyPages.markAll();
     }
     
     public void dirtyRange(int min, int max) {
-        minDirty = Math.min(min, minDirty);
-        maxDirty = Math.max(max, maxDirty);
+        dirtyPages.markRange(min, max);
     }
     
     public void flush() {
-        if (minDirty >= maxDirty) {
+        if (writeOnly) {
+            if (stagedAllocations.isEmpty()) {
+                return;
+            }
+            final var iterator = stagedAllocations.iterator();
+            while (iterator.hasNext()) {
+                final var allocation = iterator.next();
+                if (allocation.locked) {
+                    // still being written to, keep the staging buffer around
+                    allocation.uploadStaging(false);
+                    continue;
+                }
+                iterator.remove();
+                allocation.uploadStaging(true);
+            }
+            return;
+        }
+        if (dirtyPages.isClean()) {
             return;
         }
-        // TODO: maybe smaller blocks?
-        B3DStateHelper.bindArrayBuffer(buffer);
-        nglBufferSubData(GL_ARRAY_BUFFER, minDirty, maxDirty - minDirty, memAddress(byteBuffer[0]) + minDirty);
-        minDirty = Integer.MAX_VALUE;
-        maxDirty = 0;
+        B3DStateHelper.bindArrayBuffer(buffer[0]);
+        final long baseAddress = memAddress(byteBuffer[0]);
+        dirtyPages.drain(GLConfig.INSTANCE.BUFFER_UPLOAD_MERGE_GAP, (offset, size) -> nglBufferSubData(GL_ARRAY_BUFFER, offset, size, baseAddress + offset));
     }
     
     public void addCPUReallocCallback(Consumer<Buffer> consumer) {
@@ -461,7 +570,26 @@ public class GLBuffer implements Buffer {
     }
     
     public int handle() {
-        return buffer;
+        return buffer[0];
+    }
+    
+    /**
+     * Buffers that rotate between several GL buffers, see {@link GLPersistentBuffer}, have a region for each
+     * anything referencing a region's GL buffer, like a buffer texture, can be made once per region, and picked by region() at draw time
+     */
+    public int regionCount() {
+        return 1;
+    }
+    
+    /**
+     * @return region handle() currently refers to
+     */
+    public int region() {
+        return 0;
+    }
+    
+    public int regionHandle(int region) {
+        return buffer[0];
     }
     
     private void expand(int minSize) {
@@ -475,39 +603,363 @@ public class GLBuffer implements Buffer {
             size <<= 1;
         }
         
-        byteBuffer[0] = MemoryUtil.memRealloc(byteBuffer[0], size);
-        B3DStateHelper.bindArrayBuffer(buffer);
-        glBufferData(GL_ARRAY_BUFFER, byteBuffer[0], usage);
+        if (!writeOnly) {
+            byteBuffer[0] = MemoryUtil.memRealloc(byteBuffer[0], size);
+        }
+        dirtyPages.resize(size);
+        resizeGPUStorage(oldSize);
+        
+        final Block tailBlock;
+        if (lastBlock.free) {
+            removeFreeBlock(lastBlock);
+            lastBlock.dead = true;
+            tailBlock = new Block(lastBlock.offset, size - lastBlock.offset, true);
+            linkBlock(lastBlock.prevPhysical, tailBlock, null);
+        } else {
+            tailBlock = new Block(oldSize, size - oldSize, true);
+            linkBlock(lastBlock, tailBlock, null);
+        }
+        insertFreeBlock(tailBlock);
+        
+        slicers.forEach(Runnable::run);
+        reallocCallbacks.forEach(c -> c.accept(this));
+    }
+    
+    /**
+     * Called after the CPU side buffer has grown or shrunk, GPU side storage must be resized to match
+     * <p>
+     * the old contents are copied GPU side into a new buffer, rather than uploading the entire CPU side buffer again
+     * anything still dirty stays dirty, and is uploaded at the next flush
+     */
+    protected void resizeGPUStorage(int oldSize) {
+        final int oldBuffer = buffer[0];
+        final int newBuffer = glGenBuffers();
+        // copy targets arent tracked by blaze3d, so these dont need to go through B3DStateHelper
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newBuffer);
+        glBufferData(GL_COPY_WRITE_BUFFER, size, usage);
+        glBindBuffer(GL_COPY_READ_BUFFER, oldBuffer);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, Math.min(oldSize, size));
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        // GL defers the actual delete until the copy is done with it
+        glDeleteBuffers(oldBuffer);
+        buffer[0] = newBuffer;
+        gpuRealloced();
+    }
+    
+    protected long cpuAddress() {
+        return memAddress(byteBuffer[0]);
+    }
+    
+    /**
+     * Incrementally moves live allocations towards the start of the buffer, so free space collects at the end, then shrinks the buffer if enough of it is free
+     * moved allocations keep their identity, their slice and realloc callbacks are fired for the new offset
+     *
+     * @param byteBudget: bytes of allocation data that may be moved this call, at least one allocation is moved if possible
+     * @return bytes moved
+     */
+    public int compact(int byteBudget) {
+        int movedBytes = 0;
+        if (freeBlockCount > 1 || (freeBlockCount == 1 && !lastBlock.free)) {
+            // free neighbors are always merged, so the block after a free block is always live
+            Block block = compactCursor == null || compactCursor.dead ? firstBlock : compactCursor;
+            while (block != null && movedBytes < byteBudget) {
+                if (!block.free) {
+                    block = block.nextPhysical;
+                    continue;
+                }
+                final var liveBlock = block.nextPhysical;
+                if (liveBlock == null) {
+                    // free tail, everything before it is packed
+                    break;
+                }
+                final var allocation = liveBlock.allocation == null ? null : liveBlock.allocation.get();
+                if (allocation == null) {
+                    // already unreachable, its cleaner will free it
+                    block = liveBlock.nextPhysical;
+                    continue;
+                }
+                final int newOffset = alignUp(block.offset, allocation.alignment);
+                if (newOffset >= liveBlock.offset) {
+                    // gap is smaller than the alignment, cant move it
+                    block = liveBlock.nextPhysical;
+                    continue;
+                }
+                movedBytes += liveBlock.size;
+                block = moveDown(block, liveBlock, allocation, newOffset);
+            }
+            compactOffset = block == null ? size : block.offset;
+            compactCursor = block;
+        }
+        shrink();
+        return movedBytes;
+    }
+    
+    /**
+     * Moves the live block down into the free block before it, the vacated space is merged with any free space after it
+     *
+     * @return the free block now after the moved block
+     */
+    private Block moveDown(Block freeBlock, Block liveBlock, Allocation allocation, int newOffset) {
+        removeFreeBlock(freeBlock);
+        freeBlock.dead = true;
+        liveBlock.dead = true;
+        var prevBlock = freeBlock.prevPhysical;
+        var nextBlock = liveBlock.nextPhysical;
+        int tailEnd = liveBlock.end();
+        if (nextBlock != null && nextBlock.free) {
+            removeFreeBlock(nextBlock);
+            nextBlock.dead = true;
+            tailEnd = nextBlock.end();
+            nextBlock = nextBlock.nextPhysical;
+        }
+        if (newOffset > freeBlock.offset) {
+            final var paddingBlock = new Block(freeBlock.offset, newOffset - freeBlock.offset, true);
+            linkBlock(prevBlock, paddingBlock, nextBlock);
+            insertFreeBlock(paddingBlock);
+            prevBlock = paddingBlock;
+        }
+        final var movedBlock = new Block(newOffset, liveBlock.size, false);
+        linkBlock(prevBlock, movedBlock, nextBlock);
+        // moving down always vacates some space
+        final var tailBlock = new Block(movedBlock.end(), tailEnd - movedBlock.end(), true);
+        linkBlock(movedBlock, tailBlock, nextBlock);
+        insertFreeBlock(tailBlock);
         
-        freeAllocations.add(new Allocation.Info(oldSize, size - oldSize));
+        // staged writes are uploaded at the allocation's current offset, so they follow it on their own
+        moveData(liveBlock.offset, newOffset, liveBlock.size);
+        allocation.moveTo(movedBlock);
+        return tailBlock;
+    }
+    
+    /**
+     * Moves data within the buffer, the ranges may overlap
+     * CPU side for mirrored buffers, GPU side for write only buffers
+     */
+    private void moveData(int srcOffset, int dstOffset, int size) {
+        if (writeOnly) {
+            copyGPU(srcOffset, dstOffset, size);
+            return;
+        }
+        final long baseAddress = memAddress(byteBuffer[0]);
+        LibCString.nmemmove(baseAddress + dstOffset, baseAddress + srcOffset, size);
+        dirtyRange(dstOffset, dstOffset + size);
+    }
+    
+    /**
+     * GL doesnt allow overlapping copies within a buffer, so those go through a temporary buffer
+     */
+    private void copyGPU(int srcOffset, int dstOffset, int size) {
+        if (size <= 0 || srcOffset == dstOffset) {
+            return;
+        }
+        final int handle = buffer[0];
+        glBindBuffer(GL_COPY_READ_BUFFER, handle);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, handle);
+        if (srcOffset < dstOffset + size && dstOffset < srcOffset + size) {
+            final int tempBuffer = glGenBuffers();
+            glBindBuffer(GL_COPY_WRITE_BUFFER, tempBuffer);
+            glBufferData(GL_COPY_WRITE_BUFFER, size, GL_STREAM_COPY);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, srcOffset, 0, size);
+            glBindBuffer(GL_COPY_READ_BUFFER, tempBuffer);
+            glBindBuffer(GL_COPY_WRITE_BUFFER, handle);
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, dstOffset, size);
+            glDeleteBuffers(tempBuffer);
+        } else {
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, srcOffset, dstOffset, size);
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+    }
+    
+    private void shrink() {
+        if (!lastBlock.free) {
+            return;
+        }
+        final int usedSize = lastBlock.offset;
+        int newSize = size;
+        // at least half is left free, so a few allocations dont immediately grow it again
+        while (newSize / 2 >= initialSize && newSize / 2 >= Math.max(usedSize, 1) * 2) {
+            newSize /= 2;
+        }
+        if (newSize == size) {
+            return;
+        }
+        final int oldSize = size;
+        size = newSize;
+        removeFreeBlock(lastBlock);
+        lastBlock.dead = true;
+        final var tailBlock = new Block(usedSize, size - usedSize, true);
+        linkBlock(lastBlock.prevPhysical, tailBlock, null);
+        insertFreeBlock(tailBlock);
         
-        collapseFreeAllocationWithNext(freeAllocations.size() - 2);
+        if (!writeOnly) {
+            byteBuffer[0] = MemoryUtil.memRealloc(byteBuffer[0], size);
+        }
+        dirtyPages.resize(size);
+        resizeGPUStorage(oldSize);
         
         slicers.forEach(Runnable::run);
         reallocCallbacks.forEach(c -> c.accept(this));
     }
     
-    private boolean collapseFreeAllocationWithNext(int freeAllocationIndex) {
-        if (freeAllocationIndex < 0 || freeAllocationIndex >= freeAllocations.size() - 1) {
-            return false;
+    private static int alignUp(int offset, int alignment) {
+        // next value guaranteed to be at *most* one less than the next alignment, then bit magic because powers of two to round down without a divide
+        return (offset + (alignment - 1)) & (-alignment);
+    }
+    
+    private static boolean fits(Block block, int size, int alignment) {
+        return alignUp(block.offset, alignment) + size <= block.end();
+    }
+    
+    private static int listIndex(int size) {
+        if (size < SL_COUNT) {
+            return size;
+        }
+        final int log2 = (Integer.SIZE - 1) - Integer.numberOfLeadingZeros(size);
+        final int firstLevel = log2 - SL_LOG2 + 1;
+        final int secondLevel = (size >>> (log2 - SL_LOG2)) ^ SL_COUNT;
+        return firstLevel * SL_COUNT + secondLevel;
+    }
+    
+    /**
+     * Rounds the size up to the next list boundary, any block in the resulting list is guaranteed to be at least the given size
+     */
+    private static int searchSize(int size) {
+        if (size < SL_COUNT) {
+            return size;
+        }
+        final int log2 = (Integer.SIZE - 1) - Integer.numberOfLeadingZeros(size);
+        final int rounded = size + (1 << (log2 - SL_LOG2)) - 1;
+        // overflow, nothing will fit anyway
+        return rounded < 0 ? Integer.MAX_VALUE : rounded;
+    }
+    
+    @Nullable
+    private Block findFreeBlock(int size, int alignment) {
+        // the first suitable block for the size alone may already be aligned, which avoids the alignment padding in the search size
+        var block = firstFreeBlock(searchSize(size));
+        if (block != null && fits(block, size, alignment)) {
+            return block;
+        }
+        if (alignment > 1) {
+            block = firstFreeBlock(searchSize(size + alignment - 1));
+            if (block != null) {
+                return block;
+            }
         }
-        var allocA = freeAllocations.get(freeAllocationIndex);
-        var allocB = freeAllocations.get(freeAllocationIndex + 1);
-        if (allocA.offset + allocA.size == allocB.offset) {
-            // neighboring allocations, collapse them
-            freeAllocations.remove(freeAllocationIndex + 1);
-            freeAllocations.remove(freeAllocationIndex);
-            freeAllocations.add(new Allocation.Info(allocA.offset, allocA.size + allocB.size));
-            return true;
+        if (lastBlock.free && fits(lastBlock, size, alignment)) {
+            // too small for the search to guarantee a fit, but it does in this case
+            return lastBlock;
         }
-        return false;
+        return null;
     }
     
-    private void collapseFreeAllocations() {
-        for (int i = 0; i < freeAllocations.size(); i++) {
-            if (collapseFreeAllocationWithNext(i)) {
-                i--;
+    @Nullable
+    private Block firstFreeBlock(int searchSize) {
+        final int index = listIndex(searchSize);
+        int firstLevel = index / SL_COUNT;
+        int secondLevelMap = secondLevelBitmaps[firstLevel] & (-1 << (index % SL_COUNT));
+        if (secondLevelMap == 0) {
+            if (firstLevel + 1 >= FL_COUNT) {
+                return null;
+            }
+            final int firstLevelMap = firstLevelBitmap & (-1 << (firstLevel + 1));
+            if (firstLevelMap == 0) {
+                return null;
             }
+            firstLevel = Integer.numberOfTrailingZeros(firstLevelMap);
+            secondLevelMap = secondLevelBitmaps[firstLevel];
         }
+        return freeLists[firstLevel * SL_COUNT + Integer.numberOfTrailingZeros(secondLevelMap)];
+    }
+    
+    private void insertFreeBlock(Block block) {
+        final int index = listIndex(block.size);
+        final var head = freeLists[index];
+        block.prevFree = null;
+        block.nextFree = head;
+        if (head != null) {
+            head.prevFree = block;
+        }
+        freeLists[index] = block;
+        freeBlockCount++;
+        if (block.offset < compactOffset) {
+            // space opened up below the cursor, compaction needs to start from there
+            compactOffset = block.offset;
+            compactCursor = block;
+        }
+        final int firstLevel = index / SL_COUNT;
+        secondLevelBitmaps[firstLevel] |= 1 << (index % SL_COUNT);
+        firstLevelBitmap |= 1 << firstLevel;
+    }
+    
+    private void removeFreeBlock(Block block) {
+        final int index = listIndex(block.size);
+        final var prev = block.prevFree;
+        final var next = block.nextFree;
+        if (prev != null) {
+            prev.nextFree = next;
+        } else {
+            freeLists[index] = next;
+        }
+        if (next != null) {
+            next.prevFree = prev;
+        }
+        block.prevFree = null;
+        block.nextFree = null;
+        freeBlockCount--;
+        if (freeLists[index] == null) {
+            final int firstLevel = index / SL_COUNT;
+            secondLevelBitmaps[firstLevel] &= ~(1 << (index % SL_COUNT));
+            if (secondLevelBitmaps[firstLevel] == 0) {
+                firstLevelBitmap &= ~(1 << firstLevel);
+            }
+        }
+    }
+    
+    private void linkBlock(@Nullable Block prev, Block block, @Nullable Block next) {
+        block.prevPhysical = prev;
+        block.nextPhysical = next;
+        if (prev != null) {
+            prev.nextPhysical = block;
+        } else {
+            firstBlock = block;
+        }
+        if (next != null) {
+            next.prevPhysical = block;
+        } else {
+            lastBlock = block;
+        }
+        if (block.offset <= compactOffset && compactOffset < block.end()) {
+            // the block the cursor was in has been replaced
+            compactCursor = block;
+        }
+    }
+    
+    /**
+     * Splits the free block into (optional) alignment padding, the new live block, and (optional) trailing free space
+     * neighbors of a free block are never free, so none of the split off blocks need to be merged
+     */
+    private Block claimFreeBlock(Block freeBlock, int size, int alignment) {
+        removeFreeBlock(freeBlock);
+        freeBlock.dead = true;
+        var prevBlock = freeBlock.prevPhysical;
+        final var nextBlock = freeBlock.nextPhysical;
+        final int offset = alignUp(freeBlock.offset, alignment);
+        if (offset > freeBlock.offset) {
+            final var paddingBlock = new Block(freeBlock.offset, offset - freeBlock.offset, true);
+            linkBlock(prevBlock, paddingBlock, nextBlock);
+            insertFreeBlock(paddingBlock);
+            prevBlock = paddingBlock;
+        }
+        final var liveBlock = new Block(offset, size, false);
+        linkBlock(prevBlock, liveBlock, nextBlock);
+        if (liveBlock.end() < freeBlock.end()) {
+            final var tailBlock = new Block(liveBlock.end(), freeBlock.end() - liveBlock.end(), true);
+            linkBlock(liveBlock, tailBlock, nextBlock);
+            insertFreeBlock(tailBlock);
+        }
+        return liveBlock;
     }
-}
\ No newline at end of file
+}
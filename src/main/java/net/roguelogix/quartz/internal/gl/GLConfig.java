@@ -19,6 +19,8 @@ public class GLConfig {
     public final boolean ALLOW_MULTI_BIND;
     @ConfigValue
     public final boolean ALLOW_DSA;
+    @ConfigValue
+    public final boolean ALLOW_BUFFER_STORAGE;
     
     {
         ALLOW_BASE_INSTANCE = true;
@@ -28,5 +30,22 @@ public class GLConfig {
         ALLOW_SSBO = true;
         ALLOW_MULTI_BIND = true;
         ALLOW_DSA = true;
+        ALLOW_BUFFER_STORAGE = true;
+    }
+    
+    @ConfigValue(comment = "Granularity (in bytes) buffer writes are tracked at for upload, rounded up to a power of two", range = "[64,)")
+    public final int BUFFER_DIRTY_PAGE_SIZE;
+    @ConfigValue(comment = "Largest clean gap (in bytes) between two dirty ranges that will be uploaded to merge them into a single upload\nLarger values make fewer, but larger, uploads", range = "[0,)")
+    public final int BUFFER_UPLOAD_MERGE_GAP;
+    @ConfigValue(comment = "Frames of per frame data persistently mapped buffers keep in flight\nLower values use less memory, but may wait on the GPU before writing", range = "[2,8]")
+    public final int PERSISTENT_BUFFER_FRAMES;
+    @ConfigValue(comment = "Bytes of instance, matrix, and light data each draw batch may move per frame to compact its buffers\n0 disables compaction", range = "[0,)")
+    public final int BUFFER_COMPACTION_BUDGET;
+    
+    {
+        BUFFER_DIRTY_PAGE_SIZE = 1024;
+        BUFFER_UPLOAD_MERGE_GAP = 8192;
+        PERSISTENT_BUFFER_FRAMES = 3;
+        BUFFER_COMPACTION_BUDGET = 65536;
     }
 }
@@ -79,13 +79,28 @@ public class GLCore extends QuartzCore {
     public static final int SSBO_FRAGMENT_BLOCK_LIMIT = GL11.glGetInteger(ARBShaderStorageBufferObject.GL_MAX_FRAGMENT_SHADER_STORAGE_BLOCKS);
     public static final boolean MULTI_BIND = GL.getCapabilities().GL_ARB_multi_bind && GLConfig.INSTANCE.ALLOW_SSBO;
     public static final boolean DSA = GL.getCapabilities().GL_ARB_direct_state_access && GLConfig.INSTANCE.ALLOW_DSA;
+    public static final boolean BUFFER_STORAGE = GL.getCapabilities().GL_ARB_buffer_storage && GLConfig.INSTANCE.ALLOW_BUFFER_STORAGE;
     public GLMainProgram mainProgram = new GLMainProgram();
-    public GLBuffer vertexBuffer = meshManager.vertexBuffer.as(GLBuffer.class);
-    public GLBuffer elementBuffer = allocBuffer();
+    public GLImpostorProgram impostorProgram = new GLImpostorProgram();
+    public GLImpostorAtlas impostorAtlas = new GLImpostorAtlas();
+    public GLBuffer elementBuffer = allocStaticBuffer(1);
     public GLBuffer.Allocation elementBufferAllocation = elementBuffer.alloc(1);
     
     private final ObjectArrayList<WeakReference<GLDrawBatch>> batchers = new ObjectArrayList<>();
     
+    {
+        // VAOs reference the element buffer directly, so they need to follow it when it changes
+        // vertex arenas are bound per draw, so they dont
+        elementBuffer.addGPUReallocCallback(buffer -> {
+            for (int i = 0; i < batchers.size(); i++) {
+                var batch = batchers.get(i).get();
+                if (batch != null) {
+                    batch.elementBufferRealloced(buffer.as(GLBuffer.class));
+                }
+            }
+        });
+    }
+    
     public static final DrawInfo drawInfo = new DrawInfo();
     private long lastTimeNano = 0;
     
@@ -116,6 +131,8 @@ public class GLCore extends QuartzCore {
     @Override
     protected void resourcesReloadedInternal() {
         mainProgram.reload();
+        impostorProgram.reload();
+        impostorAtlas.resourcesReloaded();
         GLRenderPass.resourcesReloaded();
     }
     
@@ -131,6 +148,26 @@ public class GLCore extends QuartzCore {
         return new GLBuffer(false, 1);
     }
     
+    @Override
+    public GLBuffer allocBuffer(int initialSize) {
+        return new GLBuffer(false, initialSize);
+    }
+    
+    @Override
+    public GLBuffer allocStaticBuffer(int initialSize) {
+        return new GLBuffer(false, initialSize, true);
+    }
+    
+    /**
+     * Buffer for data that is rewritten most frames, persistently mapped when available
+     */
+    public GLBuffer allocDynamicBuffer() {
+        if (BUFFER_STORAGE) {
+            return new GLPersistentBuffer(1);
+        }
+        return new GLBuffer(false, 1);
+    }
+    
     public void ensureElementBufferLength(int faceCount) {
         if (elementBufferAllocation.size() < faceCount * 6) {
             int newFaceCount = Integer.highestOneBit(faceCount);
@@ -160,6 +197,8 @@ public class GLCore extends QuartzCore {
 //        GLFW.glfwSetInputMode(Minecraft.getInstance().getWindow().getWindow(), GLFW.GLFW_CURSOR, GLFW.GLFW_CURSOR_NORMAL);
         
         deletionQueue.runAll();
+        // before the arenas are flushed, so the swapped in vertices are uploaded this frame
+        meshManager.swapAsyncBuilds();
         
         long timeNanos = System.nanoTime();
         long deltaNano = timeNanos - lastTimeNano;
@@ -168,7 +207,10 @@ public class GLCore extends QuartzCore {
             deltaNano = 0;
         }
         
-        vertexBuffer.flush();
+        final var vertexArenas = meshManager.vertexArenas();
+        for (int i = 0; i < vertexArenas.size(); i++) {
+            vertexArenas.get(i).as(GLBuffer.class).flush();
+        }
         
         var playerPosition = pActiveRenderInfo.getPosition();
         drawInfo.playerPosition.set((int) playerPosition.x, (int) playerPosition.y, (int) playerPosition.z);
@@ -195,7 +237,11 @@ public class GLCore extends QuartzCore {
         drawInfo.fogEnd = drawInfo.fogStart == Float.MAX_VALUE ? Float.MAX_VALUE : RenderSystem.getShaderFogEnd();
         drawInfo.fogColor.set(RenderSystem.getShaderFogColor());
         
+        // draws through the main program, so its done before that is setup for the frame
+        impostorAtlas.captureQueued();
+        
         mainProgram.setupDrawInfo(drawInfo);
+        impostorProgram.setupDrawInfo(drawInfo);
         
         for (int i = 0; i < batchers.size(); i++) {
             var batch = batchers.get(i).get();
@@ -1,8 +1,11 @@
 package net.roguelogix.quartz.internal.gl;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.objects.*;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.RenderType;
+import net.minecraft.core.BlockPos;
 import net.roguelogix.phosphophyllite.util.NonnullDefault;
 import net.roguelogix.quartz.*;
 import net.roguelogix.quartz.internal.Buffer;
@@ -10,11 +13,13 @@ import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.*;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
+import org.joml.Vector3i;
 import org.joml.Vector3ic;
 import org.joml.Vector4f;
 
 import javax.annotation.Nullable;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 import static net.roguelogix.quartz.internal.MagicNumbers.GL.*;
@@ -30,6 +35,7 @@ import static org.lwjgl.opengl.ARBMultiDrawIndirect.glMultiDrawElementsIndirect;
 import static org.lwjgl.opengl.ARBShaderStorageBufferObject.GL_SHADER_STORAGE_BUFFER;
 import static org.lwjgl.opengl.ARBVertexAttribBinding.*;
 import static org.lwjgl.opengl.GL32C.*;
+import static org.lwjgl.opengl.GL33C.GL_INT_2_10_10_10_REV;
 
 @NonnullDefault
 public class GLDrawBatch implements DrawBatch {
@@ -39,71 +45,227 @@ public class GLDrawBatch implements DrawBatch {
             private final GLRenderPass renderPass;
             private final boolean QUAD;
             public final int GL_MODE;
-            private int drawIndex;
+            private int drawIndex = -1;
             
-            private final int baseVertex;
-            private final int elementCount;
+            /**
+             * What is drawn at one level of detail
+             * index type is part of the vertex source, firstIndex and indexByteOffset are only used if its set
+             *
+             * @param faceVertexCounts: vertices on each block face, grouped at the end, null unless its quads of a full block mesh
+             */
+            private record Lod(VertexSource vertexSource, int baseVertex, int elementCount, int firstIndex, long indexByteOffset, @Nullable int[] faceVertexCounts) {
+            }
+            
+            private final Lod[] lods;
+            private Lod lod;
+            // base vertex, element count, first instance, and instance count of each draw while faces are culled, null draws the whole level for every instance
+            @Nullable
+            private int[] faceDraws;
             
             private record IndirectDrawInfo(int elementCount,
                                             int instanceCount,
+                                            int firstIndex,
                                             int baseVertex,
                                             int baseInstance) {
             }
             
-            private DrawComponent(RenderType renderType, InternalMesh.Manager.TrackedMesh.Component component) {
+            private DrawComponent(RenderType renderType, InternalMesh.Manager.TrackedMesh trackedMesh) {
                 renderPass = GLRenderPass.renderPassForRenderType(renderType);
                 QUAD = renderPass.QUAD;
                 GL_MODE = renderPass.GL_MODE;
-                
-                baseVertex = component.vertexOffset();
-                int elementCountTemp = component.vertexCount();
-                if (QUAD) {
-                    elementCountTemp *= 6;
-                    elementCountTemp /= 4;
-                    GLCore.INSTANCE.ensureElementBufferLength(elementCountTemp / 6);
-                }
-                elementCount = elementCountTemp;
-                var drawComponents = (renderPass.ALPHA_DISCARD ? cutoutDrawComponents : opaqueDrawComponents).computeIfAbsent(renderPass, e -> new ObjectArrayList<>());
+                lods = new Lod[trackedMesh.lodCount()];
+                for (int i = 0; i < lods.length; i++) {
+                    final var component = trackedMesh.renderTypeComponent(renderType, i);
+                    if (i != 0 && (component == null || component.vertexCount() == 0)) {
+                        // nothing to draw, kept in the same vertex source so switching to it doesnt move this to another draw list
+                        lods[i] = new Lod(lods[i - 1].vertexSource, 0, 0, 0, 0, null);
+                        continue;
+                    }
+                    assert component != null;
+                    lods[i] = createLod(component);
+                }
+                lod = lods[Math.min(lodLevel, lods.length - 1)];
+                if (drawingImpostor) {
+                    lod = new Lod(lod.vertexSource, 0, 0, 0, 0, null);
+                }
+                addToDrawList();
+            }
+            
+            private Lod createLod(InternalMesh.Manager.TrackedMesh.Component component) {
+                final int indexType = switch (component.indexByteSize()) {
+                    case 2 -> GL_UNSIGNED_SHORT;
+                    case 4 -> GL_UNSIGNED_INT;
+                    default -> 0;
+                };
+                final var vertexSource = new VertexSource(component.vertexBuffer().as(GLBuffer.class), component.vertexLayout(), indexType);
+                int elementCount = component.vertexCount();
+                if (indexType != 0) {
+                    elementCount = component.indexCount();
+                } else if (QUAD) {
+                    elementCount *= 6;
+                    elementCount /= 4;
+                    GLCore.INSTANCE.ensureElementBufferLength(elementCount / 6);
+                }
+                // faces are only split out of quads drawn with the shared quad indices
+                final var faceVertexCounts = indexType == 0 && QUAD ? component.faceVertexCounts() : null;
+                return new Lod(vertexSource, component.vertexOffset(), elementCount, component.indexOffset(), (long) component.indexOffset() * component.indexByteSize(), faceVertexCounts);
+            }
+            
+            private void selectLod(int lodLevel) {
+                final Lod newLod;
+                if (lodLevel == HIDDEN_LOD) {
+                    if (lod.elementCount == 0) {
+                        return;
+                    }
+                    // kept in the same vertex source, so hiding it doesnt move it to another draw list
+                    newLod = new Lod(lod.vertexSource, 0, 0, 0, 0, null);
+                } else {
+                    newLod = lods[Math.min(lodLevel, lods.length - 1)];
+                }
+                if (newLod == lod) {
+                    return;
+                }
+                if (newLod.vertexSource.equals(lod.vertexSource)) {
+                    // only the indirect command changes
+                    lod = newLod;
+                } else {
+                    removeFromDrawList();
+                    lod = newLod;
+                    addToDrawList();
+                    rebuildIndirectBlocks = true;
+                }
+                indirectDrawInfoDirty = true;
+                updateFaceDraws();
+            }
+            
+            /**
+             * Splits the level's draw by the manager's face mask groups, so each group only draws its visible faces, inner quads are drawn for every instance
+             */
+            private void updateFaceDraws() {
+                final int previousCommandCount = commandCount();
+                final var faceMaskStarts = MeshInstanceManager.this.faceMaskStarts;
+                final var faceVertexCounts = lod.faceVertexCounts;
+                if (faceMaskStarts == null || faceVertexCounts == null || lod.elementCount == 0) {
+                    faceDraws = null;
+                } else {
+                    final var draws = new IntArrayList();
+                    int facesStart = lod.elementCount / 6 * 4;
+                    for (int faceVertexCount : faceVertexCounts) {
+                        facesStart -= faceVertexCount;
+                    }
+                    addFaceDraw(draws, 0, facesStart, 0, instanceCount);
+                    // mask 0 has nothing visible
+                    for (int mask = 1; mask < faceMaskStarts.length - 1; mask++) {
+                        final int firstInstance = faceMaskStarts[mask];
+                        final int maskInstanceCount = faceMaskStarts[mask + 1] - firstInstance;
+                        if (maskInstanceCount == 0) {
+                            continue;
+                        }
+                        // faces are grouped in mask bit order, so neighbouring visible faces are drawn together
+                        int runStart = facesStart;
+                        int runEnd = facesStart;
+                        int faceStart = facesStart;
+                        for (int face = 0; face < faceVertexCounts.length; face++) {
+                            final int faceEnd = faceStart + faceVertexCounts[face];
+                            if ((mask & (1 << face)) != 0) {
+                                runEnd = faceEnd;
+                            } else if (faceEnd != faceStart) {
+                                addFaceDraw(draws, runStart, runEnd - runStart, firstInstance, maskInstanceCount);
+                                runStart = runEnd = faceEnd;
+                            }
+                            faceStart = faceEnd;
+                        }
+                        addFaceDraw(draws, runStart, runEnd - runStart, firstInstance, maskInstanceCount);
+                    }
+                    if (draws.isEmpty()) {
+                        // every face is hidden, an empty draw keeps the component's indirect command
+                        draws.addElements(0, new int[]{lod.baseVertex, 0, 0, 0});
+                    }
+                    faceDraws = draws.toIntArray();
+                }
+                if (commandCount() != previousCommandCount) {
+                    rebuildIndirectBlocks = true;
+                }
+                indirectDrawInfoDirty = true;
+            }
+            
+            private void addFaceDraw(IntArrayList draws, int firstVertex, int vertexCount, int firstInstance, int instanceCount) {
+                if (vertexCount == 0 || instanceCount == 0) {
+                    return;
+                }
+                draws.add(lod.baseVertex + firstVertex);
+                draws.add(vertexCount / 4 * 6);
+                draws.add(firstInstance);
+                draws.add(instanceCount);
+            }
+            
+            private int commandCount() {
+                return faceDraws == null ? 1 : faceDraws.length / 4;
+            }
+            
+            private void addToDrawList() {
+                var arenaDrawComponents = (renderPass.ALPHA_DISCARD ? cutoutDrawComponents : opaqueDrawComponents).computeIfAbsent(renderPass, e -> new Object2ObjectArrayMap<>());
+                var drawComponents = arenaDrawComponents.computeIfAbsent(lod.vertexSource, e -> new ObjectArrayList<>());
                 drawIndex = drawComponents.size();
                 drawComponents.add(this);
             }
             
+            private void removeFromDrawList() {
+                final var componentMap = renderPass.ALPHA_DISCARD ? cutoutDrawComponents : opaqueDrawComponents;
+                final var arenaDrawComponents = componentMap.get(renderPass);
+                final var drawComponents = arenaDrawComponents == null ? null : arenaDrawComponents.get(lod.vertexSource);
+                if (drawComponents == null) {
+                    drawIndex = -1;
+                    return;
+                }
+                if (drawIndex != -1) {
+                    var removed = drawComponents.pop();
+                    if (drawIndex < drawComponents.size()) {
+                        removed.drawIndex = drawIndex;
+                        drawComponents.set(drawIndex, removed);
+                    }
+                    drawIndex = -1;
+                }
+                if (drawComponents.isEmpty()) {
+                    arenaDrawComponents.remove(lod.vertexSource);
+                    if (arenaDrawComponents.isEmpty()) {
+                        componentMap.remove(renderPass);
+                    }
+                }
+            }
+            
             private void draw() {
+                final var faceDraws = this.faceDraws;
+                if (faceDraws == null) {
+                    draw(lod.baseVertex, lod.elementCount, 0, instanceCount);
+                    return;
+                }
+                for (int i = 0; i < faceDraws.length; i += 4) {
+                    draw(faceDraws[i], faceDraws[i + 1], faceDraws[i + 2], faceDraws[i + 3]);
+                }
+            }
+            
+            private void draw(int baseVertex, int elementCount, int firstInstance, int instanceCount) {
+                final var lod = this.lod;
+                if (elementCount == 0 || instanceCount == 0) {
+                    return;
+                }
+                final var vertexSource = lod.vertexSource;
+                final long indexByteOffset = lod.indexByteOffset;
+                final int instanceDataOffset = MeshInstanceManager.this.instanceDataOffset + firstInstance * INSTANCE_DATA_BYTE_SIZE;
                 if (!BASE_INSTANCE) {
-                    if (ATTRIB_BINDING) {
-                        glBindVertexBuffer(1, instanceDataBuffer.handle(), instanceDataOffset, INSTANCE_DATA_BYTE_SIZE);
-                    } else {
-                        int offset = instanceDataOffset;
-                        glVertexAttribIPointer(WORLD_POSITION_LOCATION, 3, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += IVEC4_BYTE_SIZE;
-                        glVertexAttribIPointer(DYNAMIC_MATRIX_ID_LOCATION, 1, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += INT_BYTE_SIZE;
-                        glVertexAttribIPointer(DYNAMIC_LIGHT_ID_LOCATION, 1, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += INT_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_MATRIX_LOCATION, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_MATRIX_LOCATION + 1, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_MATRIX_LOCATION + 2, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_MATRIX_LOCATION + 3, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 1, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 2, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                        glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 3, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                        offset += VEC4_BYTE_SIZE;
-                    }
-                    if (QUAD) {
+                    bindInstanceData(instanceDataBuffer.handle(), instanceDataOffset);
+                    if (vertexSource.indexType != 0) {
+                        glDrawElementsInstancedBaseVertex(GL_MODE, elementCount, vertexSource.indexType, indexByteOffset, instanceCount, baseVertex);
+                    } else if (QUAD) {
                         glDrawElementsInstancedBaseVertex(GL_TRIANGLES, elementCount, GL_UNSIGNED_INT, 0, instanceCount, baseVertex);
                     } else {
                         glDrawArraysInstanced(GL_MODE, baseVertex, elementCount, instanceCount);
                     }
                 } else {
-                    if (QUAD) {
+                    if (vertexSource.indexType != 0) {
+                        glDrawElementsInstancedBaseVertexBaseInstance(GL_MODE, elementCount, vertexSource.indexType, indexByteOffset, instanceCount, baseVertex, instanceDataOffset / INSTANCE_DATA_BYTE_SIZE);
+                    } else if (QUAD) {
                         glDrawElementsInstancedBaseVertexBaseInstance(GL_TRIANGLES, elementCount, GL_UNSIGNED_INT, 0, instanceCount, baseVertex, instanceDataOffset / INSTANCE_DATA_BYTE_SIZE);
                     } else {
                         glDrawArraysInstancedBaseInstance(GL_MODE, baseVertex, elementCount, instanceCount, instanceDataOffset / INSTANCE_DATA_BYTE_SIZE);
@@ -111,8 +273,13 @@ public class GLDrawBatch implements DrawBatch {
                 }
             }
             
-            private IndirectDrawInfo indirectInfo() {
-                return new IndirectDrawInfo(elementCount, instanceCount, baseVertex, instanceDataOffset / INSTANCE_DATA_BYTE_SIZE);
+            private IndirectDrawInfo indirectInfo(int command) {
+                final var faceDraws = this.faceDraws;
+                if (faceDraws == null) {
+                    return new IndirectDrawInfo(lod.elementCount, instanceCount, lod.firstIndex, lod.baseVertex, instanceDataOffset / INSTANCE_DATA_BYTE_SIZE);
+                }
+                final int base = command * 4;
+                return new IndirectDrawInfo(faceDraws[base + 1], faceDraws[base + 3], 0, faceDraws[base], instanceDataOffset / INSTANCE_DATA_BYTE_SIZE + faceDraws[base + 2]);
             }
         }
         
@@ -128,6 +295,14 @@ public class GLDrawBatch implements DrawBatch {
         
         private final ObjectArrayList<Instance.Location> liveInstances = new ObjectArrayList<>();
         private int instanceCount = 0;
+        // where each face mask's instances start, with the instance count at the end, null unless the batch culls this mesh's faces
+        @Nullable
+        private int[] faceMaskStarts;
+        
+        // acquired the first time the batch is far enough away, and kept until the mesh changes
+        @Nullable
+        private GLImpostorAtlas.Impostor impostor;
+        private boolean drawingImpostor = false;
         
         private MeshInstanceManager(InternalMesh mesh, boolean autoDelete) {
             this.autoDelete = autoDelete;
@@ -142,12 +317,43 @@ public class GLDrawBatch implements DrawBatch {
             instanceDataAlloc.addReallocCallback(alloc -> {
                 final var manager = ref.get();
                 if (manager != null) {
-                    manager.instanceDataOffset = alloc.offset();
+                    manager.instanceDataMoved(alloc.offset());
                 }
             });
             updateMesh(mesh);
         }
         
+        private void instanceDataMoved(int newOffset) {
+            instanceDataOffset = newOffset;
+            // indirect draws have the base instance baked in
+            indirectDrawInfoDirty = true;
+        }
+        
+        /**
+         * IDs are the position in the dynamic matrix/light buffers, so they change when those are compacted
+         */
+        private void rewriteDynamicIDs() {
+            if (instanceCount == 0) {
+                return;
+            }
+            final var byteBuf = instanceDataAlloc.buffer();
+            for (int i = 0; i < instanceCount; i++) {
+                final var location = liveInstances.get(i);
+                final int baseOffset = i * INSTANCE_DATA_BYTE_SIZE;
+                // compaction only moves some of them, the rest dont need uploading
+                final int matrixID = location.dynamicMatrix.id();
+                if (byteBuf.getInt(baseOffset + DYNAMIC_MATRIX_ID_OFFSET) != matrixID) {
+                    byteBuf.putInt(baseOffset + DYNAMIC_MATRIX_ID_OFFSET, matrixID);
+                    instanceDataAlloc.dirtyRange(baseOffset + DYNAMIC_MATRIX_ID_OFFSET, INT_BYTE_SIZE);
+                }
+                final int lightID = location.dynamicLight.id();
+                if (byteBuf.getInt(baseOffset + DYNAMIC_LIGHT_ID_OFFSET) != lightID) {
+                    byteBuf.putInt(baseOffset + DYNAMIC_LIGHT_ID_OFFSET, lightID);
+                    instanceDataAlloc.dirtyRange(baseOffset + DYNAMIC_LIGHT_ID_OFFSET, INT_BYTE_SIZE);
+                }
+            }
+        }
+        
         public void updateMesh(Mesh quartzMesh) {
             if (!(quartzMesh instanceof InternalMesh mesh)) {
                 return;
@@ -155,6 +361,7 @@ public class GLDrawBatch implements DrawBatch {
             if (trackedMesh != null) {
                 trackedMesh.removeBuildCallback(meshBuildCallback);
             }
+            releaseImpostor();
             
             staticMesh = mesh;
             trackedMesh = QuartzCore.INSTANCE.meshManager.getMeshInfo(mesh);
@@ -168,25 +375,7 @@ public class GLDrawBatch implements DrawBatch {
         
         private void onRebuild() {
             for (int i = 0; i < components.size(); i++) {
-                var component = components.get(i);
-                var renderPass = component.renderPass;
-                final var componentMap = renderPass.ALPHA_DISCARD ? cutoutDrawComponents : opaqueDrawComponents;
-                final var drawComponents = componentMap.get(renderPass);
-                if (drawComponents == null) {
-                    component.drawIndex = -1;
-                    continue;
-                }
-                if (component.drawIndex != -1) {
-                    var removed = drawComponents.pop();
-                    if (component.drawIndex < drawComponents.size()) {
-                        removed.drawIndex = component.drawIndex;
-                        drawComponents.set(component.drawIndex, removed);
-                    }
-                    component.drawIndex = -1;
-                }
-                if (drawComponents.isEmpty()) {
-                    componentMap.remove(renderPass);
-                }
+                components.get(i).removeFromDrawList();
             }
             components.clear();
             for (RenderType renderType : trackedMesh.usedRenderTypes()) {
@@ -194,10 +383,209 @@ public class GLDrawBatch implements DrawBatch {
                 if (component == null) {
                     continue;
                 }
-                var drawComponent = new DrawComponent(renderType, component);
+                var drawComponent = new DrawComponent(renderType, trackedMesh);
                 components.add(drawComponent);
             }
             indirectDrawInfoDirty = rebuildIndirectBlocks = true;
+            // the mesh may have gained or lost its simplified levels
+            reselectLods = true;
+            // or stopped being a full block
+            faceMasksDirty |= faceOcclusion;
+        }
+        
+        private void addOccluders(LongOpenHashSet occluders) {
+            if (trackedMesh == null || !trackedMesh.fullBlock()) {
+                return;
+            }
+            final var byteBuf = instanceDataAlloc.buffer();
+            final var faceSteps = new int[InternalMesh.FACES.length * 3];
+            for (int i = 0; i < instanceCount; i++) {
+                if (!worldFaceSteps(i, faceSteps)) {
+                    // doesnt fill its block
+                    continue;
+                }
+                final int baseOffset = i * INSTANCE_DATA_BYTE_SIZE + WORLD_POSITION_OFFSET;
+                occluders.add(BlockPos.asLong(byteBuf.getInt(baseOffset), byteBuf.getInt(baseOffset + INT_BYTE_SIZE), byteBuf.getInt(baseOffset + INT_BYTE_SIZE * 2)));
+            }
+        }
+        
+        /**
+         * Works out which way each of the mesh's faces points once the instance's static matrix is applied
+         * only rotations and mirrors that map the block onto itself are understood, so the matrix must swap or flip axes, and be translated to keep it in place
+         * dynamic matrices can change every frame, so only instances using the identity one are handled
+         *
+         * @param faceSteps: filled with the world step of each face in FACES, xyz each
+         * @return false if the instance may not exactly fill its block, its then neither hidden by nor hides its neighbours
+         */
+        private boolean worldFaceSteps(int location, int[] faceSteps) {
+            if (liveInstances.get(location).dynamicMatrix != IDENTITY_DYNAMIC_MATRIX) {
+                return false;
+            }
+            final var byteBuf = instanceDataAlloc.buffer();
+            final int baseOffset = location * INSTANCE_DATA_BYTE_SIZE + STATIC_MATRIX_OFFSET;
+            // column major, column then row
+            final var matrix = SCRATCH_FACE_MATRIX.set(baseOffset, byteBuf);
+            if (!nearlyEquals(matrix.m03(), 0) || !nearlyEquals(matrix.m13(), 0) || !nearlyEquals(matrix.m23(), 0) || !nearlyEquals(matrix.m33(), 1)) {
+                return false;
+            }
+            // world axis each model axis lands on, and which way
+            final var axisSigns = new int[3];
+            int usedAxes = 0;
+            for (int modelAxis = 0; modelAxis < 3; modelAxis++) {
+                int worldAxis = -1;
+                for (int row = 0; row < 3; row++) {
+                    final float value = matrix.get(modelAxis, row);
+                    if (nearlyEquals(Math.abs(value), 1)) {
+                        if (worldAxis != -1) {
+                            return false;
+                        }
+                        worldAxis = row;
+                        axisSigns[modelAxis] = value > 0 ? 1 : -1;
+                    } else if (!nearlyEquals(value, 0)) {
+                        return false;
+                    }
+                }
+                if (worldAxis == -1 || (usedAxes & (1 << worldAxis)) != 0) {
+                    return false;
+                }
+                usedAxes |= 1 << worldAxis;
+                // 0 to 1 along the model axis must land on 0 to 1 along the world one
+                if (!nearlyEquals(matrix.get(3, worldAxis), axisSigns[modelAxis] > 0 ? 0 : 1)) {
+                    return false;
+                }
+            }
+            for (int face = 0; face < InternalMesh.FACES.length; face++) {
+                final var direction = InternalMesh.FACES[face];
+                final int stepX = direction.getStepX();
+                final int stepY = direction.getStepY();
+                final int stepZ = direction.getStepZ();
+                for (int row = 0; row < 3; row++) {
+                    faceSteps[face * 3 + row] = Math.round(matrix.get(0, row) * stepX + matrix.get(1, row) * stepY + matrix.get(2, row) * stepZ);
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Groups instances by which of their faces arent pressed against a full block, so each group only draws those faces
+         *
+         * @param occluders: block positions of full block instances, null if the batch doesnt cull faces
+         */
+        private void sortByFaceMask(@Nullable LongOpenHashSet occluders) {
+            if (occluders == null || trackedMesh == null || !trackedMesh.fullBlock()) {
+                if (faceMaskStarts != null) {
+                    faceMaskStarts = null;
+                    updateFaceDraws();
+                }
+                return;
+            }
+            final var byteBuf = instanceDataAlloc.buffer();
+            final var masks = new int[instanceCount];
+            final var faceMaskStarts = new int[ALL_FACES + 2];
+            final var faceSteps = new int[InternalMesh.FACES.length * 3];
+            for (int i = 0; i < instanceCount; i++) {
+                int mask = 0;
+                if (worldFaceSteps(i, faceSteps)) {
+                    final int baseOffset = i * INSTANCE_DATA_BYTE_SIZE + WORLD_POSITION_OFFSET;
+                    final int x = byteBuf.getInt(baseOffset);
+                    final int y = byteBuf.getInt(baseOffset + INT_BYTE_SIZE);
+                    final int z = byteBuf.getInt(baseOffset + INT_BYTE_SIZE * 2);
+                    // bits are model space faces, checked against the neighbour they face in the world
+                    for (int face = 0; face < InternalMesh.FACES.length; face++) {
+                        if (!occluders.contains(BlockPos.asLong(x + faceSteps[face * 3], y + faceSteps[face * 3 + 1], z + faceSteps[face * 3 + 2]))) {
+                            mask |= 1 << face;
+                        }
+                    }
+                } else {
+                    mask = ALL_FACES;
+                }
+                masks[i] = mask;
+                faceMaskStarts[mask + 1]++;
+            }
+            for (int mask = 0; mask <= ALL_FACES; mask++) {
+                faceMaskStarts[mask + 1] += faceMaskStarts[mask];
+            }
+            // counting sort, its stable, so instances that are already grouped dont move
+            final var nextLocation = Arrays.copyOf(faceMaskStarts, ALL_FACES + 1);
+            final var locations = new int[instanceCount];
+            // only the records between the first and last that moved are uploaded again
+            int firstMoved = instanceCount;
+            int lastMoved = -1;
+            for (int i = 0; i < instanceCount; i++) {
+                locations[i] = nextLocation[masks[i]]++;
+                if (locations[i] != i) {
+                    firstMoved = Math.min(firstMoved, i);
+                    lastMoved = i;
+                }
+            }
+            if (lastMoved != -1) {
+                final var sortedData = new byte[instanceCount * INSTANCE_DATA_BYTE_SIZE];
+                final var sortedInstances = new Instance.Location[instanceCount];
+                for (int i = 0; i < instanceCount; i++) {
+                    byteBuf.get(i * INSTANCE_DATA_BYTE_SIZE, sortedData, locations[i] * INSTANCE_DATA_BYTE_SIZE, INSTANCE_DATA_BYTE_SIZE);
+                    sortedInstances[locations[i]] = liveInstances.get(i);
+                }
+                byteBuf.put(0, sortedData);
+                for (int i = 0; i < instanceCount; i++) {
+                    sortedInstances[i].location = i;
+                    liveInstances.set(i, sortedInstances[i]);
+                }
+                instanceDataAlloc.dirtyRange(firstMoved * INSTANCE_DATA_BYTE_SIZE, (lastMoved - firstMoved + 1) * INSTANCE_DATA_BYTE_SIZE);
+            }
+            this.faceMaskStarts = faceMaskStarts;
+            updateFaceDraws();
+        }
+        
+        private void updateFaceDraws() {
+            for (int i = 0; i < components.size(); i++) {
+                components.get(i).updateFaceDraws();
+            }
+        }
+        
+        private void selectLod(int lodLevel, boolean impostors) {
+            assert trackedMesh != null;
+            if (trackedMesh.lodCount() == 1) {
+                // only meshes with simplified levels get impostors
+                releaseImpostor();
+            } else if (impostors && impostor == null) {
+                impostor = GLCore.INSTANCE.impostorAtlas.acquire(trackedMesh);
+                if (impostor != null) {
+                    acquiredImpostors.add(impostor);
+                }
+            }
+            drawingImpostor = impostors && impostor != null && impostor.ready();
+            if (impostors && impostor != null && !drawingImpostor) {
+                // not captured yet, checked again next frame
+                reselectLods = true;
+            }
+            drawingImpostors |= drawingImpostor;
+            for (int i = 0; i < components.size(); i++) {
+                components.get(i).selectLod(drawingImpostor ? HIDDEN_LOD : lodLevel);
+            }
+        }
+        
+        private void releaseImpostor() {
+            if (impostor == null) {
+                return;
+            }
+            acquiredImpostors.remove(impostor);
+            GLCore.INSTANCE.impostorAtlas.release(impostor);
+            impostor = null;
+            drawingImpostor = false;
+        }
+        
+        private void drawImpostor() {
+            if (!drawingImpostor || instanceCount == 0) {
+                return;
+            }
+            assert impostor != null;
+            GLCore.INSTANCE.impostorProgram.setupImpostor(impostor);
+            if (BASE_INSTANCE) {
+                glDrawArraysInstancedBaseInstance(GL_TRIANGLES, 0, 6, instanceCount, instanceDataOffset / INSTANCE_DATA_BYTE_SIZE);
+            } else {
+                bindInstanceData(instanceDataBuffer.handle(), instanceDataOffset);
+                glDrawArraysInstanced(GL_TRIANGLES, 0, 6, instanceCount);
+            }
         }
         
         @Nullable
@@ -224,27 +612,97 @@ public class GLDrawBatch implements DrawBatch {
         }
         
         Instance createInstance(Vector3ic worldPosition, DynamicMatrixManager.Matrix dynamicMatrix, Matrix4fc staticMatrix, DynamicLightManager.Light dynamicLight) {
-            if (instanceDataAlloc.size() < (instanceCount + 1) * INSTANCE_DATA_BYTE_SIZE) {
-                instanceDataAlloc = instanceDataBuffer.realloc(instanceDataAlloc, instanceDataAlloc.size() * 2, INSTANCE_DATA_BYTE_SIZE);
-            }
-            
+            ensureInstanceCapacity(instanceCount + 1);
             
-            final var byteBuf = instanceDataAlloc.buffer();
             int baseOffset = instanceCount * INSTANCE_DATA_BYTE_SIZE;
-            worldPosition.get(baseOffset + WORLD_POSITION_OFFSET, byteBuf);
-            byteBuf.putInt(baseOffset + DYNAMIC_MATRIX_ID_OFFSET, dynamicMatrix.id());
-            byteBuf.putInt(baseOffset + DYNAMIC_LIGHT_ID_OFFSET, dynamicLight.id());
-            staticMatrix.get(baseOffset + STATIC_MATRIX_OFFSET, byteBuf);
-            staticMatrix.normal(SCRATCH_NORMAL_MATRIX).get(baseOffset + STATIC_NORMAL_MATRIX_OFFSET, byteBuf);
-//            instanceDataAlloc.dirtyRange(baseOffset, INSTANCE_DATA_BYTE_SIZE);
-            instanceDataBuffer.dirtyAll();
+            writeInstance(baseOffset, worldPosition.x(), worldPosition.y(), worldPosition.z(), dynamicMatrix, staticMatrix, dynamicLight);
+            // only the new record is uploaded, not the whole batch
+            instanceDataAlloc.dirtyRange(baseOffset, INSTANCE_DATA_BYTE_SIZE);
             
             var instance = new Instance(instanceCount++, dynamicMatrix, dynamicLight);
             liveInstances.add(instance.location);
             indirectDrawInfoDirty = true;
+            faceMasksDirty |= faceOcclusion;
             return instance;
         }
         
+        @Nullable
+        public DrawBatch.InstanceGroup createInstances(int[] positions, @Nullable DynamicMatrix quartzDynamicMatrix, @Nullable float[] staticMatrices, @Nullable DynamicLight.Type lightType) {
+            checkInstanceArrays(positions, staticMatrices);
+            if (quartzDynamicMatrix == null) {
+                quartzDynamicMatrix = IDENTITY_DYNAMIC_MATRIX;
+            }
+            if (!(quartzDynamicMatrix instanceof DynamicMatrixManager.Matrix dynamicMatrix) || !dynamicMatrixManager.owns(dynamicMatrix)) {
+                return null;
+            }
+            if (lightType == null) {
+                lightType = DynamicLight.Type.SMOOTH;
+            }
+            final var lights = new DynamicLightManager.Light[positions.length / 3];
+            for (int i = 0; i < lights.length; i++) {
+                // kept by the light's update function, so it cant be reused
+                final var position = new Vector3i(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+                lights[i] = (DynamicLightManager.Light) QuartzCore.INSTANCE.lightEngine.createLightForPos(position, lightManager, lightType);
+            }
+            return createInstances(positions, dynamicMatrix, staticMatrices, lights);
+        }
+        
+        /**
+         * Grows the instance data once and writes every instance in one pass, so its uploaded as a single range
+         */
+        InstanceGroup createInstances(int[] positions, DynamicMatrixManager.Matrix dynamicMatrix, @Nullable float[] staticMatrices, DynamicLightManager.Light[] lights) {
+            ensureInstanceCapacity(instanceCount + lights.length);
+            
+            final int firstOffset = instanceCount * INSTANCE_DATA_BYTE_SIZE;
+            final var locations = new Instance.Location[lights.length];
+            for (int i = 0; i < lights.length; i++) {
+                final Matrix4fc staticMatrix = staticMatrices == null ? IDENTITY_MATRIX : SCRATCH_STATIC_MATRIX.set(staticMatrices, i * MATRIX_FLOAT_COUNT);
+                writeInstance(instanceCount * INSTANCE_DATA_BYTE_SIZE, positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], dynamicMatrix, staticMatrix, lights[i]);
+                locations[i] = new Instance.Location(instanceCount++, dynamicMatrix, lights[i]);
+                liveInstances.add(locations[i]);
+            }
+            instanceDataAlloc.dirtyRange(firstOffset, lights.length * INSTANCE_DATA_BYTE_SIZE);
+            indirectDrawInfoDirty = true;
+            faceMasksDirty |= faceOcclusion;
+            if (instanceCount == 0 && autoDelete) {
+                // nothing was created, so nothing would ever delete it
+                delete();
+            }
+            return new InstanceGroup(locations);
+        }
+        
+        /**
+         * Doubles the instance data until it fits, reallocating at most once
+         */
+        private void ensureInstanceCapacity(int instances) {
+            final int requiredSize = instances * INSTANCE_DATA_BYTE_SIZE;
+            int newSize = instanceDataAlloc.size();
+            if (newSize >= requiredSize) {
+                return;
+            }
+            while (newSize < requiredSize) {
+                newSize *= 2;
+            }
+            instanceDataAlloc = instanceDataBuffer.realloc(instanceDataAlloc, newSize, INSTANCE_DATA_BYTE_SIZE);
+        }
+        
+        private void writeInstance(int baseOffset, int x, int y, int z, DynamicMatrixManager.Matrix dynamicMatrix, Matrix4fc staticMatrix, DynamicLightManager.Light dynamicLight) {
+            final var byteBuf = instanceDataAlloc.buffer();
+            byteBuf.putInt(baseOffset + WORLD_POSITION_OFFSET, x);
+            byteBuf.putInt(baseOffset + WORLD_POSITION_OFFSET + INT_BYTE_SIZE, y);
+            byteBuf.putInt(baseOffset + WORLD_POSITION_OFFSET + INT_BYTE_SIZE * 2, z);
+            byteBuf.putInt(baseOffset + DYNAMIC_MATRIX_ID_OFFSET, dynamicMatrix.id());
+            byteBuf.putInt(baseOffset + DYNAMIC_LIGHT_ID_OFFSET, dynamicLight.id());
+            staticMatrix.get(baseOffset + STATIC_MATRIX_OFFSET, byteBuf);
+            staticMatrix.normal(SCRATCH_NORMAL_MATRIX).get(baseOffset + STATIC_NORMAL_MATRIX_OFFSET, byteBuf);
+        }
+        
+        void removeInstances(Instance.Location[] instances) {
+            for (var instance : instances) {
+                removeInstance(instance);
+            }
+        }
+        
         void removeInstance(Instance.Location instance) {
             if (instance.location == -1) {
                 return;
@@ -253,9 +711,8 @@ public class GLDrawBatch implements DrawBatch {
             var endInstance = liveInstances.pop();
             if (instance != endInstance) {
                 // swapping time!
+                // copy marks the destination record dirty, the vacated end record is past instanceCount, so its never drawn
                 instanceDataAlloc.copy(endInstance.location * INSTANCE_DATA_BYTE_SIZE, instance.location * INSTANCE_DATA_BYTE_SIZE, INSTANCE_DATA_BYTE_SIZE);
-//                instanceDataAlloc.dirtyRange(instance.location * INSTANCE_DATA_BYTE_SIZE, INSTANCE_DATA_BYTE_SIZE);
-//                instanceDataBuffer.dirtyAll();
                 
                 liveInstances.set(instance.location, endInstance);
                 endInstance.location = instance.location;
@@ -265,6 +722,7 @@ public class GLDrawBatch implements DrawBatch {
                 delete();
             }
             indirectDrawInfoDirty = true;
+            faceMasksDirty |= faceOcclusion;
         }
         
         public void delete() {
@@ -272,71 +730,57 @@ public class GLDrawBatch implements DrawBatch {
                 removeInstance(liveInstances.peek(0));
             }
             for (int i = 0; i < components.size(); i++) {
-                var component = components.get(i);
-                var renderPass = component.renderPass;
-                final var componentMap = renderPass.ALPHA_DISCARD ? cutoutDrawComponents : opaqueDrawComponents;
-                final var drawComponents = componentMap.get(renderPass);
-                if (drawComponents == null) {
-                    component.drawIndex = -1;
-                    continue;
-                }
-                if (component.drawIndex != -1) {
-                    var removed = drawComponents.pop();
-                    if (component.drawIndex < drawComponents.size()) {
-                        removed.drawIndex = component.drawIndex;
-                        drawComponents.set(component.drawIndex, removed);
-                    }
-                    component.drawIndex = -1;
-                }
-                if (drawComponents.isEmpty()) {
-                    componentMap.remove(renderPass);
-                }
+                components.get(i).removeFromDrawList();
             }
             components.clear();
             instanceManagers.remove(staticMesh, this);
             instanceBatches.remove(this);
             indirectDrawInfoDirty = rebuildIndirectBlocks = true;
             trackedMesh.removeBuildCallback(meshBuildCallback);
+            releaseImpostor();
         }
         
         private class Instance implements DrawBatch.Instance {
             
             private static class Location {
                 private int location;
+                // kept here so the IDs can be rewritten without the instance
+                private DynamicMatrixManager.Matrix dynamicMatrix;
+                private DynamicLightManager.Light dynamicLight;
                 
-                private Location(int location) {
+                private Location(int location, DynamicMatrixManager.Matrix dynamicMatrix, DynamicLightManager.Light dynamicLight) {
                     this.location = location;
+                    this.dynamicMatrix = dynamicMatrix;
+                    this.dynamicLight = dynamicLight;
                 }
             }
             
             private final Location location;
             @Nullable
             private MeshInstanceManager.InstanceBatch batch;
-            private DynamicMatrixManager.Matrix dynamicMatrix;
-            private DynamicLightManager.Light dynamicLight;
             
             private Instance(int initialLocation, DynamicMatrixManager.Matrix dynamicMatrix, DynamicLightManager.Light dynamicLight) {
                 final var manager = MeshInstanceManager.this;
-                final var location = new Location(initialLocation);
+                final var location = new Location(initialLocation, dynamicMatrix, dynamicLight);
                 QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(() -> manager.removeInstance(location)));
                 this.location = location;
-                this.dynamicMatrix = dynamicMatrix;
-                this.dynamicLight = dynamicLight;
             }
             
             @Override
             public void updateDynamicMatrix(@Nullable DynamicMatrix newDynamicMatrix) {
-                if (dynamicMatrix == newDynamicMatrix) {
+                if (location.dynamicMatrix == newDynamicMatrix) {
                     return;
                 }
                 if (newDynamicMatrix == null) {
                     newDynamicMatrix = IDENTITY_DYNAMIC_MATRIX;
                 }
                 if (newDynamicMatrix instanceof DynamicMatrixManager.Matrix dynamicMatrix && dynamicMatrixManager.owns(dynamicMatrix)) {
-                    this.dynamicMatrix = dynamicMatrix;
+                    location.dynamicMatrix = dynamicMatrix;
                     final var offset = location.location * INSTANCE_DATA_BYTE_SIZE + DYNAMIC_MATRIX_ID_OFFSET;
                     instanceDataAlloc.buffer().putInt(offset, dynamicMatrix.id());
                     instanceDataAlloc.dirtyRange(offset, INT_BYTE_SIZE);
+                    // which way its faces point may have changed
+                    faceMasksDirty |= faceOcclusion;
                 }
             }
             
@@ -350,18 +794,19 @@ public class GLDrawBatch implements DrawBatch {
                 newStaticMatrix.get(transformOffset, instanceDataAlloc.buffer());
                 newStaticMatrix.normal(SCRATCH_NORMAL_MATRIX).get(normalOffset, instanceDataAlloc.buffer());
                 instanceDataAlloc.dirtyRange(transformOffset, MATRIX_4F_BYTE_SIZE_2);
+                faceMasksDirty |= faceOcclusion;
             }
             
             @Override
             public void updateDynamicLight(@Nullable DynamicLight newDynamicLight) {
-                if (dynamicLight == newDynamicLight) {
+                if (location.dynamicLight == newDynamicLight) {
                     return;
                 }
                 if (newDynamicLight == null) {
                     newDynamicLight = ZERO_LEVEL_LIGHT;
                 }
                 if (newDynamicLight instanceof DynamicLightManager.Light dynamicLight && lightManager.owns(dynamicLight)) {
-                    this.dynamicLight = dynamicLight;
+                    location.dynamicLight = dynamicLight;
                     int newLightID = dynamicLight.id();
                     final var offset = location.location * INSTANCE_DATA_BYTE_SIZE + DYNAMIC_LIGHT_ID_OFFSET;
                     instanceDataAlloc.buffer().putInt(offset, newLightID);
@@ -375,6 +820,32 @@ public class GLDrawBatch implements DrawBatch {
             }
         }
         
+        /**
+         * One handle and cleaner for every instance created together
+         */
+        private class InstanceGroup implements DrawBatch.InstanceGroup {
+            
+            private final Instance.Location[] locations;
+            @Nullable
+            private MeshInstanceManager.InstanceBatch batch;
+            
+            private InstanceGroup(Instance.Location[] locations) {
+                final var manager = MeshInstanceManager.this;
+                QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(() -> manager.removeInstances(locations)));
+                this.locations = locations;
+            }
+            
+            @Override
+            public int size() {
+                return locations.length;
+            }
+            
+            @Override
+            public void delete() {
+                removeInstances(locations);
+            }
+        }
+        
         private static class InstanceBatch implements DrawBatch.InstanceBatch {
             private final MeshInstanceManager instanceManager;
             
@@ -398,33 +869,64 @@ public class GLDrawBatch implements DrawBatch {
                 instance1.batch = this;
                 return instance;
             }
+            
+            @Nullable
+            @Override
+            public DrawBatch.InstanceGroup createInstances(int[] positions, @Nullable DynamicMatrix dynamicMatrix, @Nullable float[] staticMatrices, @Nullable DynamicLight.Type lightType) {
+                final var group = instanceManager.createInstances(positions, dynamicMatrix, staticMatrices, lightType);
+                if (!(group instanceof MeshInstanceManager.InstanceGroup group1)) {
+                    return null;
+                }
+                group1.batch = this;
+                return group;
+            }
         }
     }
     
-    private record IndirectDrawBlock(int glMode, boolean QUAD, GLBuffer.Allocation drawInfoAlloc, int count,
+    private record IndirectDrawBlock(int glMode, boolean QUAD, int indexType, GLBuffer.Allocation drawInfoAlloc, int count,
                                      ObjectArrayList<MeshInstanceManager.DrawComponent> drawComponents,
                                      boolean multidraw) {
         
+        // elements commands are 5 ints, arrays commands are 4, but are padded to match
+        private static final int COMMAND_BYTE_SIZE = 5 * INT_BYTE_SIZE;
+        
         public IndirectDrawBlock(ObjectArrayList<MeshInstanceManager.DrawComponent> drawComponents, GLBuffer indirectBuffer, boolean multidraw) {
-            this(drawComponents.get(0).GL_MODE, drawComponents.get(0).QUAD, indirectBuffer.alloc(drawComponents.size() * 5 * INT_BYTE_SIZE), drawComponents.size(), drawComponents, multidraw);
+            this(drawComponents.get(0).GL_MODE, drawComponents.get(0).QUAD, drawComponents.get(0).lod.vertexSource.indexType, indirectBuffer.alloc(commandCount(drawComponents) * COMMAND_BYTE_SIZE), commandCount(drawComponents), drawComponents, multidraw);
             updateDrawInfo();
         }
         
+        /**
+         * Components culling faces take a command per draw
+         */
+        private static int commandCount(ObjectArrayList<MeshInstanceManager.DrawComponent> drawComponents) {
+            int count = 0;
+            for (int i = 0; i < drawComponents.size(); i++) {
+                count += drawComponents.get(i).commandCount();
+            }
+            return count;
+        }
+        
         public void draw() {
             if (multidraw) {
-                if (QUAD) {
+                if (indexType != 0) {
+                    glMultiDrawElementsIndirect(glMode, indexType, drawInfoAlloc.offset(), count, 0);
+                } else if (QUAD) {
                     glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, drawInfoAlloc.offset(), count, 0);
                 } else {
-                    glMultiDrawArraysIndirect(glMode, drawInfoAlloc.offset(), count, 0);
+                    glMultiDrawArraysIndirect(glMode, drawInfoAlloc.offset(), count, COMMAND_BYTE_SIZE);
                 }
             } else {
-                if (QUAD) {
+                if (indexType != 0) {
+                    for (int i = 0; i < count; i++) {
+                        glDrawElementsIndirect(glMode, indexType, drawInfoAlloc.offset() + (long) i * COMMAND_BYTE_SIZE);
+                    }
+                } else if (QUAD) {
                     for (int i = 0; i < count; i++) {
-                        glDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, drawInfoAlloc.offset() + i * 20L);
+                        glDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, drawInfoAlloc.offset() + (long) i * COMMAND_BYTE_SIZE);
                     }
                 } else {
                     for (int i = 0; i < count; i++) {
-                        glDrawArraysIndirect(glMode, drawInfoAlloc.offset() + i * 20L);
+                        glDrawArraysIndirect(glMode, drawInfoAlloc.offset() + (long) i * COMMAND_BYTE_SIZE);
                     }
                 }
             }
@@ -432,41 +934,78 @@ public class GLDrawBatch implements DrawBatch {
         
         public void updateDrawInfo() {
             var drawInfo = drawInfoAlloc.buffer().asIntBuffer();
-            for (int i = 0; i < drawComponents.size(); i++) {
-                var indirectInfo = drawComponents.get(i).indirectInfo();
+            final boolean elements = QUAD || indexType != 0;
+            for (int i = 0, component = 0, command = 0; i < count; i++, command++) {
+                if (command == drawComponents.get(component).commandCount()) {
+                    component++;
+                    command = 0;
+                }
+                var indirectInfo = drawComponents.get(component).indirectInfo(command);
                 drawInfo.put(i * 5, indirectInfo.elementCount);
                 drawInfo.put(i * 5 + 1, indirectInfo.instanceCount);
-                drawInfo.put(i * 5 + 2, 0);
-                drawInfo.put(i * 5 + 3, indirectInfo.baseVertex);
-                drawInfo.put(i * 5 + 4, indirectInfo.baseInstance);
+                if (elements) {
+                    // quads all use the start of the shared quad element buffer
+                    drawInfo.put(i * 5 + 2, QUAD ? 0 : indirectInfo.firstIndex);
+                    drawInfo.put(i * 5 + 3, indirectInfo.baseVertex);
+                    drawInfo.put(i * 5 + 4, indirectInfo.baseInstance);
+                } else {
+                    drawInfo.put(i * 5 + 2, indirectInfo.baseVertex);
+                    drawInfo.put(i * 5 + 3, indirectInfo.baseInstance);
+                    drawInfo.put(i * 5 + 4, 0);
+                }
             }
         }
     }
     
+    /**
+     * Arenas can hold vertices of any layout, so its the pair that gets bound together
+     * indexed meshes keep their indices in the same arena, so its bound as the element buffer too
+     *
+     * @param indexType: GL index type, 0 if not drawn with indices from the arena
+     */
+    private record VertexSource(GLBuffer arena, VertexLayout layout, int indexType) {
+    }
+    
     private static final Matrix4fc IDENTITY_MATRIX = new Matrix4f();
+    // lod level that draws nothing, for components replaced by an impostor
+    private static final int HIDDEN_LOD = -1;
+    // face mask with every face visible, bit n is InternalMesh.FACES[n]
+    private static final int ALL_FACES = (1 << InternalMesh.FACES.length) - 1;
     private static final Matrix4f SCRATCH_NORMAL_MATRIX = new Matrix4f();
+    private static final Matrix4f SCRATCH_STATIC_MATRIX = new Matrix4f();
+    private static final Matrix4f SCRATCH_FACE_MATRIX = new Matrix4f();
+    private static final int MATRIX_FLOAT_COUNT = 16;
+    private static final float BLOCK_MATRIX_TOLERANCE = 1.0f / (1 << 16);
+    
+    private static boolean nearlyEquals(float value, float expected) {
+        return Math.abs(value - expected) <= BLOCK_MATRIX_TOLERANCE;
+    }
     
     private final GLBuffer instanceDataBuffer = new GLBuffer(false);
     
-    private final GLBuffer dynamicMatrixBuffer = new GLBuffer(false);
+    private final GLBuffer dynamicMatrixBuffer = GLCore.INSTANCE.allocDynamicBuffer();
     private final DynamicMatrixManager dynamicMatrixManager = new DynamicMatrixManager(dynamicMatrixBuffer);
     private final DynamicMatrix IDENTITY_DYNAMIC_MATRIX = dynamicMatrixManager.createMatrix((matrix, nanoSinceLastFrame, partialTicks, playerBlock, playerPartialBlock) -> matrix.write(IDENTITY_MATRIX), null);
-    private final GLBuffer dynamicLightBuffer = new GLBuffer(false);
+    private final GLBuffer dynamicLightBuffer = GLCore.INSTANCE.allocDynamicBuffer();
     private final DynamicLightManager lightManager = new DynamicLightManager(dynamicLightBuffer);
     private final DynamicLightManager.Light ZERO_LEVEL_LIGHT = lightManager.createLight((light, blockAndTintGetter) -> light.write((byte) 0, (byte) 0, (byte) 0));
     
     private final int VAO;
-    private final int dynamicMatrixTexture;
-    private final int dynamicLightTexture;
+    // instance attributes only, impostors have no vertices
+    private final int impostorVAO;
+    // one per region of the buffer, see GLBuffer.regionCount
+    private final int[] dynamicMatrixTextures;
+    private final int[] dynamicLightTextures;
     
     private final Object2ObjectMap<InternalMesh, MeshInstanceManager> instanceManagers = new Object2ObjectOpenHashMap<>();
     private final ObjectOpenHashSet<MeshInstanceManager> instanceBatches = new ObjectOpenHashSet<>();
-    private final Object2ObjectMap<GLRenderPass, ObjectArrayList<MeshInstanceManager.DrawComponent>> opaqueDrawComponents = new Object2ObjectArrayMap<>();
-    private final Object2ObjectMap<GLRenderPass, ObjectArrayList<MeshInstanceManager.DrawComponent>> cutoutDrawComponents = new Object2ObjectArrayMap<>();
+    // render pass -> vertex arena and layout -> components, draws are grouped by arena so vertex buffer 0 is only bound once per arena and layout
+    private final Object2ObjectMap<GLRenderPass, Object2ObjectMap<VertexSource, ObjectArrayList<MeshInstanceManager.DrawComponent>>> opaqueDrawComponents = new Object2ObjectArrayMap<>();
+    private final Object2ObjectMap<GLRenderPass, Object2ObjectMap<VertexSource, ObjectArrayList<MeshInstanceManager.DrawComponent>>> cutoutDrawComponents = new Object2ObjectArrayMap<>();
     
     private final GLBuffer indirectDrawBuffer = DRAW_INDIRECT ? new GLBuffer(false) : null;
-    private final Object2ObjectMap<GLRenderPass, IndirectDrawBlock> opaqueIndirectInfo = new Object2ObjectArrayMap<>();
-    private final Object2ObjectMap<GLRenderPass, IndirectDrawBlock> cutoutIndirectInfo = new Object2ObjectArrayMap<>();
+    private final Object2ObjectMap<GLRenderPass, Object2ObjectMap<VertexSource, IndirectDrawBlock>> opaqueIndirectInfo = new Object2ObjectArrayMap<>();
+    private final Object2ObjectMap<GLRenderPass, Object2ObjectMap<VertexSource, IndirectDrawBlock>> cutoutIndirectInfo = new Object2ObjectArrayMap<>();
     private boolean indirectDrawInfoDirty = false;
     private boolean rebuildIndirectBlocks = false;
     
@@ -477,6 +1016,17 @@ public class GLDrawBatch implements DrawBatch {
     private final Vector4f cullVectorMax = new Vector4f();
     private boolean enabled = true;
     private boolean culled = false;
+    // picked from the distance to the cull AABB, meshes without that many levels draw their last one
+    private int lodLevel = 0;
+    private boolean impostors = false;
+    // set when a manager needs its level picked again even if the batch's didnt change
+    private boolean reselectLods = false;
+    private boolean drawingImpostors = false;
+    private boolean faceOcclusion = false;
+    // set when instances or meshes change, so face masks are worked out again before the next draw
+    private boolean faceMasksDirty = false;
+    // every impostor held by a manager, released with the batch, as managers dont get deleted with it
+    private final ObjectArrayList<GLImpostorAtlas.Impostor> acquiredImpostors = new ObjectArrayList<>();
     
     public GLDrawBatch() {
         final int VAO = glGenVertexArrays();
@@ -489,6 +1039,88 @@ public class GLDrawBatch implements DrawBatch {
         glEnableVertexAttribArray(TEX_COORD_LOCATION);
         glEnableVertexAttribArray(LIGHTINFO_LOCATION);
         
+        if (ATTRIB_BINDING) {
+            glVertexAttribBinding(POSITION_LOCATION, 0);
+            glVertexAttribBinding(COLOR_LOCATION, 0);
+            glVertexAttribBinding(TEX_COORD_LOCATION, 0);
+            glVertexAttribBinding(LIGHTINFO_LOCATION, 0);
+            
+            // per vertex formats depend on the layout, and are set along with the arena
+        }
+        setupInstanceAttributes();
+        
+        // vertex buffer is bound per arena and layout at draw time
+        // when base instance is unavailable, this must be setup per draw
+        if (BASE_INSTANCE || DRAW_INDIRECT) {
+            bindInstanceDataBuffer(instanceDataBuffer.handle());
+        }
+        glBindVertexArray(0);
+        
+        final int impostorVAO = glGenVertexArrays();
+        B3DStateHelper.bindVertexArray(impostorVAO);
+        setupInstanceAttributes();
+        // impostors are never drawn indirectly, so without base instance its always per draw
+        if (BASE_INSTANCE) {
+            bindInstanceDataBuffer(instanceDataBuffer.handle());
+        }
+        glBindVertexArray(0);
+        
+        final int[] dynamicMatrixTextures = new int[dynamicMatrixBuffer.regionCount()];
+        glGenTextures(dynamicMatrixTextures);
+        setupBufferTextures(dynamicMatrixTextures, dynamicMatrixBuffer, GL_RGBA32F);
+        
+        final int[] dynamicLightTextures = new int[dynamicLightBuffer.regionCount()];
+        glGenTextures(dynamicLightTextures);
+        setupBufferTextures(dynamicLightTextures, dynamicLightBuffer, GL_RG8UI);
+        
+        if (BASE_INSTANCE || DRAW_INDIRECT) {
+            instanceDataBuffer.addGPUReallocCallback(buffer -> {
+                B3DStateHelper.bindVertexArray(VAO);
+                bindInstanceDataBuffer(buffer.as(GLBuffer.class).handle());
+                if (BASE_INSTANCE) {
+                    B3DStateHelper.bindVertexArray(impostorVAO);
+                    bindInstanceDataBuffer(buffer.as(GLBuffer.class).handle());
+                }
+                glBindVertexArray(0);
+            });
+        }
+        // texture buffers reference the GL buffers, so they need to follow them when the storage changes
+        // switching regions doesnt, the matching texture is bound at draw time instead
+        dynamicMatrixBuffer.addGPUReallocCallback(buffer -> setupBufferTextures(dynamicMatrixTextures, buffer.as(GLBuffer.class), GL_RGBA32F));
+        dynamicLightBuffer.addGPUReallocCallback(buffer -> setupBufferTextures(dynamicLightTextures, buffer.as(GLBuffer.class), GL_RG8UI));
+        
+        final var acquiredImpostors = this.acquiredImpostors;
+        QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(() -> {
+            glDeleteTextures(dynamicLightTextures);
+            glDeleteTextures(dynamicMatrixTextures);
+            glDeleteVertexArrays(impostorVAO);
+            glDeleteVertexArrays(VAO);
+            for (int i = 0; i < acquiredImpostors.size(); i++) {
+                GLCore.INSTANCE.impostorAtlas.release(acquiredImpostors.get(i));
+            }
+        }));
+        
+        this.VAO = VAO;
+        this.impostorVAO = impostorVAO;
+        this.dynamicMatrixTextures = dynamicMatrixTextures;
+        this.dynamicLightTextures = dynamicLightTextures;
+    }
+    
+    /**
+     * Points each texture at the buffer's region of the same index
+     */
+    private static void setupBufferTextures(int[] textures, GLBuffer buffer, int format) {
+        for (int i = 0; i < textures.length; i++) {
+            glBindTexture(GL_TEXTURE_BUFFER, textures[i]);
+            glTexBuffer(GL_TEXTURE_BUFFER, format, buffer.regionHandle(i));
+        }
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+    }
+    
+    /**
+     * Enables the instance attributes and sets their formats, VAO must be bound
+     */
+    private static void setupInstanceAttributes() {
         glEnableVertexAttribArray(WORLD_POSITION_LOCATION);
         glEnableVertexAttribArray(DYNAMIC_MATRIX_ID_LOCATION);
         glEnableVertexAttribArray(DYNAMIC_LIGHT_ID_LOCATION);
@@ -502,22 +1134,6 @@ public class GLDrawBatch implements DrawBatch {
         glEnableVertexAttribArray(STATIC_NORMAL_MATRIX_LOCATION + 3);
         
         if (ATTRIB_BINDING) {
-            glBindVertexBuffer(0, QuartzCore.INSTANCE.meshManager.vertexBuffer.as(GLBuffer.class).handle(), 0, VERTEX_BYTE_SIZE);
-            
-            glVertexAttribBinding(POSITION_LOCATION, 0);
-            glVertexAttribBinding(COLOR_LOCATION, 0);
-            glVertexAttribBinding(TEX_COORD_LOCATION, 0);
-            glVertexAttribBinding(LIGHTINFO_LOCATION, 0);
-            
-            glVertexAttribFormat(POSITION_LOCATION, 3, GL_FLOAT, false, 0);
-            glVertexAttribIFormat(COLOR_LOCATION, 1, GL_INT, 12);
-            glVertexAttribFormat(TEX_COORD_LOCATION, 2, GL_FLOAT, false, 16);
-            glVertexAttribIFormat(LIGHTINFO_LOCATION, 2, GL_INT, 24);
-            
-            // when base instance is unavailable, this must be setup per draw
-            if (BASE_INSTANCE || DRAW_INDIRECT) {
-                glBindVertexBuffer(1, instanceDataBuffer.handle(), 0, INSTANCE_DATA_BYTE_SIZE);
-            }
             glVertexBindingDivisor(1, 1);
             
             glVertexAttribBinding(WORLD_POSITION_LOCATION, 1);
@@ -555,15 +1171,7 @@ public class GLDrawBatch implements DrawBatch {
             offset += VEC4_BYTE_SIZE;
             glVertexAttribFormat(STATIC_NORMAL_MATRIX_LOCATION + 3, 4, GL_FLOAT, false, offset);
             offset += VEC4_BYTE_SIZE;
-            
-            
         } else {
-            B3DStateHelper.bindArrayBuffer(QuartzCore.INSTANCE.meshManager.vertexBuffer.as(GLBuffer.class).handle());
-            glVertexAttribPointer(POSITION_LOCATION, 3, GL_FLOAT, false, VERTEX_BYTE_SIZE, 0);
-            glVertexAttribIPointer(COLOR_LOCATION, 1, GL_INT, VERTEX_BYTE_SIZE, 12);
-            glVertexAttribPointer(TEX_COORD_LOCATION, 2, GL_FLOAT, false, VERTEX_BYTE_SIZE, 16);
-            glVertexAttribIPointer(LIGHTINFO_LOCATION, 2, GL_INT, VERTEX_BYTE_SIZE, 24);
-            
             glVertexAttribDivisorARB(WORLD_POSITION_LOCATION, 1);
             glVertexAttribDivisorARB(DYNAMIC_MATRIX_ID_LOCATION, 1);
             glVertexAttribDivisorARB(DYNAMIC_LIGHT_ID_LOCATION, 1);
@@ -575,56 +1183,124 @@ public class GLDrawBatch implements DrawBatch {
             glVertexAttribDivisorARB(STATIC_NORMAL_MATRIX_LOCATION + 1, 1);
             glVertexAttribDivisorARB(STATIC_NORMAL_MATRIX_LOCATION + 2, 1);
             glVertexAttribDivisorARB(STATIC_NORMAL_MATRIX_LOCATION + 3, 1);
-            
-            // when base instance is unavailable, this must be setup per draw
-            if (BASE_INSTANCE || DRAW_INDIRECT) {
-                B3DStateHelper.bindArrayBuffer(instanceDataBuffer.handle());
-                int offset = 0;
-                glVertexAttribIPointer(WORLD_POSITION_LOCATION, 3, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += IVEC4_BYTE_SIZE;
-                glVertexAttribIPointer(DYNAMIC_MATRIX_ID_LOCATION, 1, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += INT_BYTE_SIZE;
-                glVertexAttribIPointer(DYNAMIC_LIGHT_ID_LOCATION, 1, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += INT_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_MATRIX_LOCATION, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_MATRIX_LOCATION + 1, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_MATRIX_LOCATION + 2, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_MATRIX_LOCATION + 3, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 1, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 2, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
-                glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 3, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
-                offset += VEC4_BYTE_SIZE;
+        }
+    }
+    
+    /**
+     * Points the vertex attributes at a mesh vertex arena, in the layout given, VAO and main program must be bound
+     */
+    private static void bindVertexSource(VertexSource vertexSource) {
+        final int buffer = vertexSource.arena.handle();
+        final var layout = vertexSource.layout;
+        final int stride = layout.byteSize;
+        GLCore.INSTANCE.mainProgram.setupVertexLayout(layout);
+        // element buffer binding is VAO state, quads need the shared quad indices back after an indexed arena
+        B3DStateHelper.bindElementBuffer(vertexSource.indexType != 0 ? buffer : GLCore.INSTANCE.elementBuffer.handle());
+        // attributes the layout doesnt have are disabled, the render pass doesnt read them, so the constant value is fine
+        if (layout.texture) {
+            glEnableVertexAttribArray(TEX_COORD_LOCATION);
+        } else {
+            glDisableVertexAttribArray(TEX_COORD_LOCATION);
+        }
+        if (layout.lighting) {
+            glEnableVertexAttribArray(LIGHTINFO_LOCATION);
+        } else {
+            glDisableVertexAttribArray(LIGHTINFO_LOCATION);
+        }
+        if (ATTRIB_BINDING) {
+            // formats are per attribute, so they need to be changed with the layout
+            if (layout.compact) {
+                glVertexAttribFormat(POSITION_LOCATION, 4, GL_INT_2_10_10_10_REV, false, 0);
+            } else {
+                glVertexAttribFormat(POSITION_LOCATION, 3, GL_FLOAT, false, 0);
             }
+            glVertexAttribIFormat(COLOR_LOCATION, 1, GL_INT, layout.colorOffset);
+            if (layout.texture) {
+                if (layout.compact) {
+                    glVertexAttribFormat(TEX_COORD_LOCATION, 2, GL_UNSIGNED_SHORT, true, layout.texCoordOffset);
+                } else {
+                    glVertexAttribFormat(TEX_COORD_LOCATION, 2, GL_FLOAT, false, layout.texCoordOffset);
+                }
+            }
+            if (layout.lighting) {
+                glVertexAttribIFormat(LIGHTINFO_LOCATION, 2, GL_INT, layout.lightInfoOffset);
+            }
+            glBindVertexBuffer(0, buffer, 0, stride);
+        } else {
+            B3DStateHelper.bindArrayBuffer(buffer);
+            if (layout.compact) {
+                glVertexAttribPointer(POSITION_LOCATION, 4, GL_INT_2_10_10_10_REV, false, stride, 0);
+            } else {
+                glVertexAttribPointer(POSITION_LOCATION, 3, GL_FLOAT, false, stride, 0);
+            }
+            glVertexAttribIPointer(COLOR_LOCATION, 1, GL_INT, stride, layout.colorOffset);
+            if (layout.texture) {
+                if (layout.compact) {
+                    glVertexAttribPointer(TEX_COORD_LOCATION, 2, GL_UNSIGNED_SHORT, true, stride, layout.texCoordOffset);
+                } else {
+                    glVertexAttribPointer(TEX_COORD_LOCATION, 2, GL_FLOAT, false, stride, layout.texCoordOffset);
+                }
+            }
+            if (layout.lighting) {
+                glVertexAttribIPointer(LIGHTINFO_LOCATION, 2, GL_INT, stride, layout.lightInfoOffset);
+            }
+        }
+    }
+    
+    /**
+     * Points the instance attributes at the start of the instance data buffer, VAO must be bound
+     * only used when base instance or draw indirect is available, otherwise its setup per draw
+     */
+    private static void bindInstanceDataBuffer(int buffer) {
+        if (!ATTRIB_BINDING) {
+            B3DStateHelper.bindArrayBuffer(buffer);
         }
+        bindInstanceData(buffer, 0);
+    }
+    
+    /**
+     * Points the instance attributes at the instance data starting at offset, VAO must be bound
+     * without attrib binding, the instance data buffer must already be bound as the array buffer
+     */
+    private static void bindInstanceData(int buffer, int offset) {
+        if (ATTRIB_BINDING) {
+            glBindVertexBuffer(1, buffer, offset, INSTANCE_DATA_BYTE_SIZE);
+        } else {
+            glVertexAttribIPointer(WORLD_POSITION_LOCATION, 3, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += IVEC4_BYTE_SIZE;
+            glVertexAttribIPointer(DYNAMIC_MATRIX_ID_LOCATION, 1, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += INT_BYTE_SIZE;
+            glVertexAttribIPointer(DYNAMIC_LIGHT_ID_LOCATION, 1, GL_INT, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += INT_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_MATRIX_LOCATION, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += VEC4_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_MATRIX_LOCATION + 1, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += VEC4_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_MATRIX_LOCATION + 2, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += VEC4_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_MATRIX_LOCATION + 3, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += VEC4_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += VEC4_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 1, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += VEC4_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 2, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+            offset += VEC4_BYTE_SIZE;
+            glVertexAttribPointer(STATIC_NORMAL_MATRIX_LOCATION + 3, 4, GL_FLOAT, false, INSTANCE_DATA_BYTE_SIZE, offset);
+        }
+    }
+    
+    /**
+     * Light without any world lighting, for instances that arent placed in the world
+     */
+    DynamicLight zeroLevelLight() {
+        return ZERO_LEVEL_LIGHT;
+    }
+    
+    void elementBufferRealloced(GLBuffer buffer) {
+        B3DStateHelper.bindVertexArray(VAO);
+        B3DStateHelper.bindElementBuffer(buffer.handle());
         glBindVertexArray(0);
-        
-        final int dynamicMatrixTexture = glGenTextures();
-        glBindTexture(GL_TEXTURE_BUFFER, dynamicMatrixTexture);
-        glTexBuffer(GL_TEXTURE_BUFFER, GL_RGBA32F, dynamicMatrixBuffer.handle());
-        
-        final int dynamicLightTexture = glGenTextures();
-        glBindTexture(GL_TEXTURE_BUFFER, dynamicLightTexture);
-        glTexBuffer(GL_TEXTURE_BUFFER, GL_RG8UI, dynamicLightBuffer.handle());
-        
-        glBindTexture(GL_TEXTURE_BUFFER, 0);
-        
-        QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(() -> {
-            glDeleteTextures(dynamicLightTexture);
-            glDeleteTextures(dynamicMatrixTexture);
-            glDeleteVertexArrays(VAO);
-        }));
-        
-        this.VAO = VAO;
-        this.dynamicMatrixTexture = dynamicMatrixTexture;
-        this.dynamicLightTexture = dynamicLightTexture;
     }
     
     @Override
@@ -667,6 +1343,29 @@ public class GLDrawBatch implements DrawBatch {
         return instanceManager.createInstance(position, dynamicMatrix, staticMatrix, light);
     }
     
+    @Nullable
+    @Override
+    public InstanceGroup createInstances(int[] positions, Mesh quartzMesh, @Nullable DynamicMatrix quartzDynamicMatrix, @Nullable float[] staticMatrices, @Nullable DynamicLight.Type lightType) {
+        if (!(quartzMesh instanceof InternalMesh mesh)) {
+            return null;
+        }
+        checkInstanceArrays(positions, staticMatrices);
+        if (quartzDynamicMatrix != null && (!(quartzDynamicMatrix instanceof DynamicMatrixManager.Matrix dynamicMatrix) || !dynamicMatrixManager.owns(dynamicMatrix))) {
+            return null;
+        }
+        var instanceManager = instanceManagers.computeIfAbsent(mesh, (InternalMesh m) -> new MeshInstanceManager(m, true));
+        return instanceManager.createInstances(positions, quartzDynamicMatrix, staticMatrices, lightType);
+    }
+    
+    private static void checkInstanceArrays(int[] positions, @Nullable float[] staticMatrices) {
+        if (positions.length % 3 != 0) {
+            throw new IllegalArgumentException("Positions must be xyz triples, got " + positions.length + " ints");
+        }
+        if (staticMatrices != null && staticMatrices.length != positions.length / 3 * MATRIX_FLOAT_COUNT) {
+            throw new IllegalArgumentException("Expected " + positions.length / 3 + " static matrices, got " + staticMatrices.length + " floats");
+        }
+    }
+    
     @Override
     public DynamicMatrix createDynamicMatrix(@Nullable DynamicMatrix parentTransform, @Nullable DynamicMatrix.UpdateFunc updateFunc) {
         return dynamicMatrixManager.createMatrix(updateFunc, parentTransform);
@@ -687,12 +1386,22 @@ public class GLDrawBatch implements DrawBatch {
         this.enabled = enabled;
     }
     
+    @Override
+    public void setFaceOcclusion(boolean faceOcclusion) {
+        if (this.faceOcclusion != faceOcclusion) {
+            this.faceOcclusion = faceOcclusion;
+            faceMasksDirty = true;
+        }
+    }
+    
     @Override
     public boolean isEmpty() {
         return instanceManagers.isEmpty() && instanceBatches.isEmpty();
     }
     
     void updateAndCull(@SuppressWarnings("SameParameterValue") DrawInfo drawInfo) {
+        compactBuffers();
+        
         // matrices need to be updated anyway
         dynamicMatrixManager.updateAll(drawInfo.deltaNano, drawInfo.partialTicks, drawInfo.playerPosition, drawInfo.playerSubBlock);
         
@@ -716,6 +1425,15 @@ public class GLDrawBatch implements DrawBatch {
             return;
         }
         
+        updateFaceMasks();
+        
+        if (cullAABB != null) {
+            final float distance = cullAABBDistance(drawInfo);
+            selectLod(lodLevelForDistance(distance), impostorsForDistance(distance));
+        } else {
+            selectLod(0, false);
+        }
+        
         assert Minecraft.getInstance().level != null;
         lightManager.updateAll(Minecraft.getInstance().level);
         dynamicMatrixBuffer.flush();
@@ -724,6 +1442,95 @@ public class GLDrawBatch implements DrawBatch {
         updateIndirectInfo();
     }
     
+    private float cullAABBDistance(DrawInfo drawInfo) {
+        assert cullAABB != null;
+        final float cameraX = drawInfo.playerPosition.x + drawInfo.playerSubBlock.x;
+        final float cameraY = drawInfo.playerPosition.y + drawInfo.playerSubBlock.y;
+        final float cameraZ = drawInfo.playerPosition.z + drawInfo.playerSubBlock.z;
+        // to the closest point, 0 if the camera is inside it
+        final float x = Math.max(0, Math.max(cullAABB.minX() - cameraX, cameraX - cullAABB.maxX()));
+        final float y = Math.max(0, Math.max(cullAABB.minY() - cameraY, cameraY - cullAABB.maxY()));
+        final float z = Math.max(0, Math.max(cullAABB.minZ() - cameraZ, cameraZ - cullAABB.maxZ()));
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+    
+    private static int lodLevelForDistance(float distance) {
+        final int lodDistance = QuartzConfig.INSTANCE.lodDistance;
+        if (lodDistance == 0) {
+            return 0;
+        }
+        // each level starts at twice the distance of the one before it
+        int lodLevel = 0;
+        for (float levelDistance = lodDistance; lodLevel < InternalMesh.LOD_LEVELS - 1 && distance >= levelDistance; levelDistance *= 2) {
+            lodLevel++;
+        }
+        return lodLevel;
+    }
+    
+    private static boolean impostorsForDistance(float distance) {
+        final int impostorDistance = QuartzConfig.INSTANCE.impostorDistance;
+        return impostorDistance != 0 && distance >= impostorDistance;
+    }
+    
+    private void selectLod(int lodLevel, boolean impostors) {
+        if (this.lodLevel == lodLevel && this.impostors == impostors && !reselectLods) {
+            return;
+        }
+        this.lodLevel = lodLevel;
+        this.impostors = impostors;
+        reselectLods = false;
+        drawingImpostors = false;
+        for (var instanceManager : instanceManagers.values()) {
+            instanceManager.selectLod(lodLevel, impostors);
+        }
+        for (var instanceManager : instanceBatches) {
+            instanceManager.selectLod(lodLevel, impostors);
+        }
+    }
+    
+    /**
+     * Instances of full block meshes hide the faces of their neighbours, rebuilt from scratch as multiblocks change all at once anyway
+     */
+    private void updateFaceMasks() {
+        if (!faceMasksDirty) {
+            return;
+        }
+        faceMasksDirty = false;
+        LongOpenHashSet occluders = null;
+        if (faceOcclusion) {
+            occluders = new LongOpenHashSet();
+            for (var instanceManager : instanceManagers.values()) {
+                instanceManager.addOccluders(occluders);
+            }
+            for (var instanceManager : instanceBatches) {
+                instanceManager.addOccluders(occluders);
+            }
+        }
+        for (var instanceManager : instanceManagers.values()) {
+            instanceManager.sortByFaceMask(occluders);
+        }
+        for (var instanceManager : instanceBatches) {
+            instanceManager.sortByFaceMask(occluders);
+        }
+    }
+    
+    private void compactBuffers() {
+        final int budget = GLConfig.INSTANCE.BUFFER_COMPACTION_BUDGET;
+        if (budget == 0) {
+            return;
+        }
+        if (dynamicMatrixBuffer.compact(budget) + dynamicLightBuffer.compact(budget) != 0) {
+            for (var instanceManager : instanceManagers.values()) {
+                instanceManager.rewriteDynamicIDs();
+            }
+            for (var instanceManager : instanceBatches) {
+                instanceManager.rewriteDynamicIDs();
+            }
+        }
+        // instance managers follow their allocation through its realloc callback
+        instanceDataBuffer.compact(budget);
+    }
+    
     private void updateIndirectInfo() {
         if (!DRAW_INDIRECT || !indirectDrawInfoDirty) {
             return;
@@ -731,39 +1538,41 @@ public class GLDrawBatch implements DrawBatch {
         indirectDrawInfoDirty = false;
         if (rebuildIndirectBlocks) {
             rebuildIndirectBlocks = false;
-            opaqueIndirectInfo.forEach((glRenderPass, drawBlock) -> indirectDrawBuffer.free(drawBlock.drawInfoAlloc));
-            cutoutIndirectInfo.forEach((glRenderPass, drawBlock) -> indirectDrawBuffer.free(drawBlock.drawInfoAlloc));
-            opaqueIndirectInfo.clear();
-            cutoutIndirectInfo.clear();
-            opaqueDrawComponents.forEach((glRenderPass, drawComponents) -> opaqueIndirectInfo.put(glRenderPass, new IndirectDrawBlock(drawComponents, indirectDrawBuffer, MULTIDRAW_INDIRECT)));
-            cutoutDrawComponents.forEach((glRenderPass, drawComponents) -> cutoutIndirectInfo.put(glRenderPass, new IndirectDrawBlock(drawComponents, indirectDrawBuffer, MULTIDRAW_INDIRECT)));
+            rebuildIndirectBlocks(opaqueDrawComponents, opaqueIndirectInfo);
+            rebuildIndirectBlocks(cutoutDrawComponents, cutoutIndirectInfo);
         } else {
-            opaqueIndirectInfo.values().forEach(IndirectDrawBlock::updateDrawInfo);
-            cutoutIndirectInfo.values().forEach(IndirectDrawBlock::updateDrawInfo);
+            opaqueIndirectInfo.values().forEach(drawBlocks -> drawBlocks.values().forEach(IndirectDrawBlock::updateDrawInfo));
+            cutoutIndirectInfo.values().forEach(drawBlocks -> drawBlocks.values().forEach(IndirectDrawBlock::updateDrawInfo));
         }
         indirectDrawBuffer.dirtyAll();
         indirectDrawBuffer.flush();
     }
     
+    private void rebuildIndirectBlocks(Object2ObjectMap<GLRenderPass, Object2ObjectMap<VertexSource, ObjectArrayList<MeshInstanceManager.DrawComponent>>> drawComponents, Object2ObjectMap<GLRenderPass, Object2ObjectMap<VertexSource, IndirectDrawBlock>> indirectInfo) {
+        indirectInfo.values().forEach(drawBlocks -> drawBlocks.values().forEach(drawBlock -> indirectDrawBuffer.free(drawBlock.drawInfoAlloc)));
+        indirectInfo.clear();
+        drawComponents.forEach((glRenderPass, arenaDrawComponents) -> {
+            final var drawBlocks = new Object2ObjectArrayMap<VertexSource, IndirectDrawBlock>();
+            arenaDrawComponents.forEach((vertexSource, components) -> drawBlocks.put(vertexSource, new IndirectDrawBlock(components, indirectDrawBuffer, MULTIDRAW_INDIRECT)));
+            indirectInfo.put(glRenderPass, drawBlocks);
+        });
+    }
+    
     void drawOpaque() {
-        if (!enabled || culled || opaqueDrawComponents.isEmpty()) {
+        if (!enabled || culled || (opaqueDrawComponents.isEmpty() && !drawingImpostors)) {
             return;
         }
         
         if (!SSBO) {
             glActiveTexture(DYNAMIC_MATRIX_TEXTURE_UNIT_GL);
-            glBindTexture(GL_TEXTURE_BUFFER, dynamicMatrixTexture);
+            glBindTexture(GL_TEXTURE_BUFFER, dynamicMatrixTextures[dynamicMatrixBuffer.region()]);
             glActiveTexture(DYNAMIC_LIGHT_TEXTURE_UNIT_GL);
-            glBindTexture(GL_TEXTURE_BUFFER, dynamicLightTexture);
+            glBindTexture(GL_TEXTURE_BUFFER, dynamicLightTextures[dynamicLightBuffer.region()]);
         } else {
             glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, dynamicMatrixBuffer.handle());
             glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, dynamicLightBuffer.handle());
         }
         
-        if (!BASE_INSTANCE && !DRAW_INDIRECT) {
-            B3DStateHelper.bindArrayBuffer(instanceDataBuffer.handle());
-        }
-        
         final var program = GLCore.INSTANCE.mainProgram;
         
         glActiveTexture(ATLAS_TEXTURE_UNIT_GL);
@@ -771,19 +1580,55 @@ public class GLDrawBatch implements DrawBatch {
         glBindVertexArray(VAO);
         if (DRAW_INDIRECT) {
             glBindBuffer(GL_DRAW_INDIRECT_BUFFER, indirectDrawBuffer.handle());
-            opaqueIndirectInfo.forEach((renderPass, drawBlock) -> {
+            opaqueIndirectInfo.forEach((renderPass, drawBlocks) -> {
                 program.setupRenderPass(renderPass);
-                drawBlock.draw();
+                drawBlocks.forEach((vertexSource, drawBlock) -> {
+                    bindVertexSource(vertexSource);
+                    drawBlock.draw();
+                });
             });
         } else {
             for (var entry : opaqueDrawComponents.entrySet()) {
                 program.setupRenderPass(entry.getKey());
-                var drawComponents = entry.getValue();
-                for (int i = 0; i < drawComponents.size(); i++) {
-                    drawComponents.get(i).draw();
+                for (var arenaEntry : entry.getValue().entrySet()) {
+                    bindVertexSource(arenaEntry.getKey());
+                    if (!BASE_INSTANCE) {
+                        // binding the arena may have changed the array buffer, per draw instance setup needs it to be the instance data
+                        B3DStateHelper.bindArrayBuffer(instanceDataBuffer.handle());
+                    }
+                    var drawComponents = arenaEntry.getValue();
+                    for (int i = 0; i < drawComponents.size(); i++) {
+                        drawComponents.get(i).draw();
+                    }
                 }
             }
         }
+        
+        if (drawingImpostors) {
+            drawImpostors();
+        }
+    }
+    
+    /**
+     * Alpha tested, so theyre drawn with the opaque pass, dynamic matrices and lights must already be bound
+     */
+    private void drawImpostors() {
+        // replaces the main program's pipeline and atlas texture, so it needs to bind them again
+        GLCore.INSTANCE.mainProgram.resetBinds();
+        GLCore.INSTANCE.impostorProgram.bind();
+        glActiveTexture(ATLAS_TEXTURE_UNIT_GL);
+        glBindTexture(GL_TEXTURE_2D, GLCore.INSTANCE.impostorAtlas.texture());
+        
+        glBindVertexArray(impostorVAO);
+        if (!BASE_INSTANCE) {
+            B3DStateHelper.bindArrayBuffer(instanceDataBuffer.handle());
+        }
+        for (var instanceManager : instanceManagers.values()) {
+            instanceManager.drawImpostor();
+        }
+        for (var instanceManager : instanceBatches) {
+            instanceManager.drawImpostor();
+        }
     }
     
     void drawCutout() {
@@ -793,18 +1638,14 @@ public class GLDrawBatch implements DrawBatch {
         
         if (!SSBO) {
             glActiveTexture(DYNAMIC_MATRIX_TEXTURE_UNIT_GL);
-            glBindTexture(GL_TEXTURE_BUFFER, dynamicMatrixTexture);
+            glBindTexture(GL_TEXTURE_BUFFER, dynamicMatrixTextures[dynamicMatrixBuffer.region()]);
             glActiveTexture(DYNAMIC_LIGHT_TEXTURE_UNIT_GL);
-            glBindTexture(GL_TEXTURE_BUFFER, dynamicLightTexture);
+            glBindTexture(GL_TEXTURE_BUFFER, dynamicLightTextures[dynamicLightBuffer.region()]);
         } else {
             glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 0, dynamicMatrixBuffer.handle());
             glBindBufferBase(GL_SHADER_STORAGE_BUFFER, 1, dynamicLightBuffer.handle());
         }
         
-        if (!BASE_INSTANCE && !DRAW_INDIRECT) {
-            B3DStateHelper.bindArrayBuffer(instanceDataBuffer.handle());
-        }
-        
         final var program = GLCore.INSTANCE.mainProgram;
         
         glActiveTexture(ATLAS_TEXTURE_UNIT_GL);
@@ -812,16 +1653,26 @@ public class GLDrawBatch implements DrawBatch {
         glBindVertexArray(VAO);
         if (DRAW_INDIRECT) {
             glBindBuffer(GL_DRAW_INDIRECT_BUFFER, indirectDrawBuffer.handle());
-            cutoutIndirectInfo.forEach((renderPass, drawBlock) -> {
+            cutoutIndirectInfo.forEach((renderPass, drawBlocks) -> {
                 program.setupRenderPass(renderPass);
-                drawBlock.draw();
+                drawBlocks.forEach((vertexSource, drawBlock) -> {
+                    bindVertexSource(vertexSource);
+                    drawBlock.draw();
+                });
             });
         } else {
             for (var entry : cutoutDrawComponents.entrySet()) {
                 program.setupRenderPass(entry.getKey());
-                var drawComponents = entry.getValue();
-                for (int i = 0; i < drawComponents.size(); i++) {
-                    drawComponents.get(i).draw();
+                for (var arenaEntry : entry.getValue().entrySet()) {
+                    bindVertexSource(arenaEntry.getKey());
+                    if (!BASE_INSTANCE) {
+                        // binding the arena may have changed the array buffer, per draw instance setup needs it to be the instance data
+                        B3DStateHelper.bindArrayBuffer(instanceDataBuffer.handle());
+                    }
+                    var drawComponents = arenaEntry.getValue();
+                    for (int i = 0; i < drawComponents.size(); i++) {
+                        drawComponents.get(i).draw();
+                    }
                 }
             }
         }
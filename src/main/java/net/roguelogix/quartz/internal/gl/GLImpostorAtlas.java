@@ -0,0 +1,328 @@
+package net.roguelogix.quartz.internal.gl;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayFIFOQueue;
+import net.minecraft.client.Minecraft;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.DrawBatch;
+import net.roguelogix.quartz.internal.QuartzCore;
+import net.roguelogix.quartz.internal.common.DrawInfo;
+import net.roguelogix.quartz.internal.common.InternalMesh;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import static net.roguelogix.quartz.internal.MagicNumbers.GL.*;
+import static org.lwjgl.opengl.ARBSeparateShaderObjects.glBindProgramPipeline;
+import static org.lwjgl.opengl.GL32C.*;
+
+/**
+ * Pictures of meshes from several directions around their Y axis, drawn in place of them past the impostor distance
+ * <p>
+ * each mesh gets a slot of VIEW_COUNT tiles in a row, captured by drawing it into the atlas through a draw batch of its own
+ * captures are redone whenever the mesh is built, which includes resource reloads
+ */
+@NonnullDefault
+public class GLImpostorAtlas {
+    
+    public static final int VIEW_COUNT = 8;
+    private static final int TILE_SIZE = 64;
+    private static final int ATLAS_SIZE = 2048;
+    static final float TILE_UV_SIZE = (float) TILE_SIZE / ATLAS_SIZE;
+    private static final int SLOTS_PER_ROW = ATLAS_SIZE / (TILE_SIZE * VIEW_COUNT);
+    private static final int SLOT_COUNT = SLOTS_PER_ROW * (ATLAS_SIZE / TILE_SIZE);
+    // captured slightly larger than the mesh, so mip levels dont bleed in from the next tile
+    private static final float TILE_PADDING = 1.125f;
+    // past this the padding is less than a texel
+    private static final int MAX_MIP_LEVEL = 2;
+    // spread across frames, so a resource reload doesnt stall on every mesh at once
+    private static final int CAPTURES_PER_FRAME = 8;
+    private static final Vector3ic ORIGIN = new Vector3i();
+    
+    public final class Impostor {
+        private final InternalMesh.Manager.TrackedMesh trackedMesh;
+        private final Consumer<InternalMesh.Manager.TrackedMesh> buildCallback = ignored -> queueCapture(this);
+        private final int slot;
+        private int refCount = 0;
+        private boolean queued = false;
+        private boolean captured = false;
+        // model space, set by the capture
+        final Vector3f center = new Vector3f();
+        final Vector2f halfSize = new Vector2f();
+        
+        private Impostor(InternalMesh.Manager.TrackedMesh trackedMesh, int slot) {
+            this.trackedMesh = trackedMesh;
+            this.slot = slot;
+        }
+        
+        /**
+         * False until its first capture, the mesh needs to be drawn instead until then
+         */
+        public boolean ready() {
+            return captured;
+        }
+        
+        float tileU() {
+            return (slot % SLOTS_PER_ROW) * VIEW_COUNT * TILE_UV_SIZE;
+        }
+        
+        float tileV() {
+            return (slot / SLOTS_PER_ROW) * TILE_UV_SIZE;
+        }
+    }
+    
+    private final Object2ObjectOpenHashMap<InternalMesh.Manager.TrackedMesh, Impostor> impostors = new Object2ObjectOpenHashMap<>();
+    private final IntArrayList freeSlots = new IntArrayList();
+    private final ObjectArrayFIFOQueue<Impostor> captureQueue = new ObjectArrayFIFOQueue<>();
+    
+    private final int texture;
+    private final int framebuffer;
+    // bound as the lightmap while capturing, lighting is applied when the impostor is drawn
+    private final int whiteTexture;
+    
+    @Nullable
+    private GLDrawBatch captureBatch;
+    private final DrawInfo captureDrawInfo = new DrawInfo();
+    private final int[] savedViewport = new int[4];
+    private final int[] savedScissor = new int[4];
+    private final float[] savedClearColor = new float[4];
+    
+    public GLImpostorAtlas() {
+        for (int i = SLOT_COUNT - 1; i >= 0; i--) {
+            freeSlots.add(i);
+        }
+        
+        captureDrawInfo.fogStart = Float.MAX_VALUE;
+        captureDrawInfo.fogEnd = Float.MAX_VALUE;
+        
+        final int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, MAX_MIP_LEVEL);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, ATLAS_SIZE, ATLAS_SIZE, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        glGenerateMipmap(GL_TEXTURE_2D);
+        
+        final int whiteTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, whiteTexture);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, new int[]{-1});
+        glBindTexture(GL_TEXTURE_2D, 0);
+        
+        final int depthBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, ATLAS_SIZE, ATLAS_SIZE);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+        
+        final int previousFramebuffer = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        final int framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, framebuffer);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture, 0);
+        glFramebufferRenderbuffer(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+        if (glCheckFramebufferStatus(GL_DRAW_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            QuartzCore.LOGGER.warn("Impostor atlas framebuffer incomplete, impostors will be blank");
+        }
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, previousFramebuffer);
+        
+        QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(() -> {
+            glDeleteFramebuffers(framebuffer);
+            glDeleteRenderbuffers(depthBuffer);
+            glDeleteTextures(whiteTexture);
+            glDeleteTextures(texture);
+        }));
+        
+        this.texture = texture;
+        this.framebuffer = framebuffer;
+        this.whiteTexture = whiteTexture;
+    }
+    
+    public int texture() {
+        return texture;
+    }
+    
+    /**
+     * Shared between everything drawing the same mesh, each acquire must be matched by a release
+     *
+     * @return null if the atlas is full
+     */
+    @Nullable
+    public Impostor acquire(InternalMesh.Manager.TrackedMesh trackedMesh) {
+        var impostor = impostors.get(trackedMesh);
+        if (impostor == null) {
+            if (freeSlots.isEmpty()) {
+                return null;
+            }
+            impostor = new Impostor(trackedMesh, freeSlots.popInt());
+            impostors.put(trackedMesh, impostor);
+            trackedMesh.addBuildCallback(impostor.buildCallback);
+            queueCapture(impostor);
+        }
+        impostor.refCount++;
+        return impostor;
+    }
+    
+    public void release(Impostor impostor) {
+        if (--impostor.refCount != 0) {
+            return;
+        }
+        // still in the capture queue maybe, its skipped there
+        impostor.trackedMesh.removeBuildCallback(impostor.buildCallback);
+        impostors.remove(impostor.trackedMesh);
+        freeSlots.add(impostor.slot);
+    }
+    
+    /**
+     * Textures may have changed without the mesh being built again, so everything is captured again
+     */
+    void resourcesReloaded() {
+        for (var impostor : impostors.values()) {
+            queueCapture(impostor);
+        }
+    }
+    
+    private void queueCapture(Impostor impostor) {
+        if (impostor.queued) {
+            return;
+        }
+        impostor.queued = true;
+        captureQueue.enqueue(impostor);
+    }
+    
+    /**
+     * Render thread only, must be called before the main program is setup for the frame, as capturing changes its uniforms
+     */
+    void captureQueued() {
+        if (captureQueue.isEmpty() || Minecraft.getInstance().level == null) {
+            return;
+        }
+        if (captureBatch == null) {
+            // registered like any other batch, so its VAO follows the element buffer, its empty outside of captures
+            captureBatch = (GLDrawBatch) GLCore.INSTANCE.createDrawBatch();
+        }
+        
+        final int previousFramebuffer = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        final int previousProgram = glGetInteger(GL_CURRENT_PROGRAM);
+        glGetIntegerv(GL_VIEWPORT, savedViewport);
+        glGetIntegerv(GL_SCISSOR_BOX, savedScissor);
+        glGetFloatv(GL_COLOR_CLEAR_VALUE, savedClearColor);
+        final double clearDepth = glGetDouble(GL_DEPTH_CLEAR_VALUE);
+        final boolean scissorTest = glIsEnabled(GL_SCISSOR_TEST);
+        final boolean blend = glIsEnabled(GL_BLEND);
+        final boolean depthTest = glIsEnabled(GL_DEPTH_TEST);
+        final boolean depthMask = glGetBoolean(GL_DEPTH_WRITEMASK);
+        final int depthFunc = glGetInteger(GL_DEPTH_FUNC);
+        glActiveTexture(ATLAS_TEXTURE_UNIT_GL);
+        final int previousAtlasTexture = glGetInteger(GL_TEXTURE_BINDING_2D);
+        glActiveTexture(LIGHTMAP_TEXTURE_UNIT_GL);
+        final int previousLightmapTexture = glGetInteger(GL_TEXTURE_BINDING_2D);
+        
+        glUseProgram(0);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, framebuffer);
+        glEnable(GL_SCISSOR_TEST);
+        glDisable(GL_BLEND);
+        glEnable(GL_DEPTH_TEST);
+        glDepthMask(true);
+        glDepthFunc(GL_LEQUAL);
+        glClearColor(0, 0, 0, 0);
+        glClearDepth(1);
+        glBindTexture(GL_TEXTURE_2D, whiteTexture);
+        
+        for (int i = 0; i < CAPTURES_PER_FRAME && !captureQueue.isEmpty(); i++) {
+            final var impostor = captureQueue.dequeue();
+            impostor.queued = false;
+            if (impostor.refCount == 0) {
+                // released while queued
+                continue;
+            }
+            capture(impostor, captureBatch);
+        }
+        
+        glActiveTexture(ATLAS_TEXTURE_UNIT_GL);
+        glBindTexture(GL_TEXTURE_2D, texture);
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glBindTexture(GL_TEXTURE_2D, previousAtlasTexture);
+        glActiveTexture(LIGHTMAP_TEXTURE_UNIT_GL);
+        glBindTexture(GL_TEXTURE_2D, previousLightmapTexture);
+        glActiveTexture(DYNAMIC_MATRIX_TEXTURE_UNIT_GL);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+        glActiveTexture(DYNAMIC_LIGHT_TEXTURE_UNIT_GL);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+        glActiveTexture(GL_TEXTURE0);
+        
+        glBindVertexArray(0);
+        glBindProgramPipeline(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, previousFramebuffer);
+        glViewport(savedViewport[0], savedViewport[1], savedViewport[2], savedViewport[3]);
+        glScissor(savedScissor[0], savedScissor[1], savedScissor[2], savedScissor[3]);
+        glClearColor(savedClearColor[0], savedClearColor[1], savedClearColor[2], savedClearColor[3]);
+        glClearDepth(clearDepth);
+        setEnabled(GL_SCISSOR_TEST, scissorTest);
+        setEnabled(GL_BLEND, blend);
+        setEnabled(GL_DEPTH_TEST, depthTest);
+        glDepthMask(depthMask);
+        glDepthFunc(depthFunc);
+        glUseProgram(previousProgram);
+    }
+    
+    private static void setEnabled(int capability, boolean enabled) {
+        if (enabled) {
+            glEnable(capability);
+        } else {
+            glDisable(capability);
+        }
+    }
+    
+    private void capture(Impostor impostor, GLDrawBatch captureBatch) {
+        final var bounds = impostor.trackedMesh.bounds();
+        final var mesh = impostor.trackedMesh.meshRef.get();
+        if (bounds == null || mesh == null) {
+            // its build callback queues it again once it is built
+            return;
+        }
+        final float halfWidthX = (bounds[3] - bounds[0]) * 0.5f;
+        final float halfWidthZ = (bounds[5] - bounds[2]) * 0.5f;
+        // any view of the mesh fits in its bounding cylinder
+        final float radius = Math.max((float) Math.sqrt(halfWidthX * halfWidthX + halfWidthZ * halfWidthZ), 1.0f / 16.0f);
+        final float halfHeight = Math.max((bounds[4] - bounds[1]) * 0.5f, 1.0f / 16.0f);
+        final float depth = (float) Math.sqrt(radius * radius + halfHeight * halfHeight);
+        impostor.center.set((bounds[0] + bounds[3]) * 0.5f, (bounds[1] + bounds[4]) * 0.5f, (bounds[2] + bounds[5]) * 0.5f);
+        impostor.halfSize.set(radius * TILE_PADDING, halfHeight * TILE_PADDING);
+        
+        final DrawBatch.Instance instance = captureBatch.createInstance(ORIGIN, mesh, null, null, captureBatch.zeroLevelLight(), null);
+        if (instance == null) {
+            return;
+        }
+        captureBatch.updateAndCull(captureDrawInfo);
+        
+        final var mainProgram = GLCore.INSTANCE.mainProgram;
+        final int tileX = (impostor.slot % SLOTS_PER_ROW) * VIEW_COUNT * TILE_SIZE;
+        final int tileY = (impostor.slot / SLOTS_PER_ROW) * TILE_SIZE;
+        for (int view = 0; view < VIEW_COUNT; view++) {
+            // looking at the center from (sin, 0, cos) of the view's angle, matches how the impostor shader picks a view
+            final float angle = (float) (Math.PI * 2 * view / VIEW_COUNT);
+            captureDrawInfo.projectionMatrix.setOrtho(-impostor.halfSize.x, impostor.halfSize.x, -impostor.halfSize.y, impostor.halfSize.y, -depth, depth);
+            captureDrawInfo.projectionMatrix.rotateY(-angle).translate(-impostor.center.x, -impostor.center.y, -impostor.center.z);
+            captureDrawInfo.projectionMatrix.get(captureDrawInfo.projectionMatrixFloatBuffer);
+            mainProgram.setupDrawInfo(captureDrawInfo);
+            
+            glViewport(tileX + view * TILE_SIZE, tileY, TILE_SIZE, TILE_SIZE);
+            glScissor(tileX + view * TILE_SIZE, tileY, TILE_SIZE, TILE_SIZE);
+            glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+            captureBatch.drawOpaque();
+            captureBatch.drawCutout();
+        }
+        
+        instance.delete();
+        impostor.captured = true;
+    }
+}
@@ -0,0 +1,170 @@
+package net.roguelogix.quartz.internal.gl;
+
+import net.minecraft.resources.ResourceLocation;
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.phosphophyllite.util.Util;
+import net.roguelogix.quartz.Quartz;
+import net.roguelogix.quartz.internal.MagicNumbers;
+import net.roguelogix.quartz.internal.QuartzCore;
+import net.roguelogix.quartz.internal.common.DrawInfo;
+
+import static net.roguelogix.quartz.internal.gl.GLMainProgram.SSBO;
+import static org.lwjgl.opengl.ARBSeparateShaderObjects.*;
+import static org.lwjgl.opengl.GL32C.*;
+
+/**
+ * Draws impostors as camera facing quads, using the same instance data and dynamic buffers as the main program
+ */
+@NonnullDefault
+public class GLImpostorProgram {
+    
+    public final ResourceLocation baseResourceLocation = new ResourceLocation(Quartz.modid, "shaders/gl/impostor");
+    private final ResourceLocation vertexShaderLocation = new ResourceLocation(baseResourceLocation.getNamespace(), baseResourceLocation.getPath() + ".vert");
+    private final ResourceLocation fragmentShaderLocation = new ResourceLocation(baseResourceLocation.getNamespace(), baseResourceLocation.getPath() + ".frag");
+    
+    private static class Info {
+        private int vertexShader = 0;
+        private int fragmentShader = 0;
+        
+        private int pipeline = 0;
+        
+        void clean() {
+            glDeleteProgram(vertexShader);
+            glDeleteProgram(fragmentShader);
+            glDeleteProgramPipelines(pipeline);
+        }
+    }
+    
+    private final Info info = new Info();
+    
+    public GLImpostorProgram() {
+        Info info = this.info;
+        QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(info::clean));
+    }
+    
+    public void reload() {
+        int vertexProgram = 0;
+        int fragmentProgram = 0;
+        
+        try {
+            var vertexShaderCode = Util.readResourceLocation(vertexShaderLocation);
+            var fragmentShaderCode = Util.readResourceLocation(fragmentShaderLocation);
+            if (vertexShaderCode == null || fragmentShaderCode == null) {
+                throw new IllegalStateException("Failed to load shader code for " + baseResourceLocation);
+            }
+            
+            String vertPrepend =
+                    "#define WORLD_POSITION_LOCATION " + MagicNumbers.GL.WORLD_POSITION_LOCATION + "\n" +
+                            "#define DYNAMIC_MATRIX_ID_LOCATION " + MagicNumbers.GL.DYNAMIC_MATRIX_ID_LOCATION + "\n" +
+                            "#define DYNAMIC_LIGHT_ID_LOCATION " + MagicNumbers.GL.DYNAMIC_LIGHT_ID_LOCATION + "\n" +
+                            "#define STATIC_MATRIX_LOCATION " + MagicNumbers.GL.STATIC_MATRIX_LOCATION + "\n" +
+                            (SSBO ? "#define USE_SSBO\n" : "") +
+                            "";
+            vertexShaderCode = new StringBuilder(vertexShaderCode).insert(vertexShaderCode.indexOf('\n') + 1, vertPrepend).toString();
+            
+            vertexProgram = glCreateShaderProgramv(GL_VERTEX_SHADER, vertexShaderCode);
+            fragmentProgram = glCreateShaderProgramv(GL_FRAGMENT_SHADER, fragmentShaderCode);
+            
+            int vertLinked = glGetProgrami(vertexProgram, GL_LINK_STATUS);
+            int fragLinked = glGetProgrami(fragmentProgram, GL_LINK_STATUS);
+            if (vertLinked != GL_TRUE || fragLinked != GL_TRUE) {
+                var error = new StringBuilder();
+                if (vertLinked != GL_TRUE) {
+                    error.append("Vertex shader compilation failed for ").append(vertexShaderLocation).append('\n').append(glGetProgramInfoLog(vertexProgram)).append('\n');
+                }
+                if (fragLinked != GL_TRUE) {
+                    error.append("Fragment shader compilation failed for ").append(fragmentShaderLocation).append('\n').append(glGetProgramInfoLog(fragmentProgram)).append('\n');
+                }
+                throw new IllegalStateException(error.toString());
+            }
+            
+            glDeleteProgramPipelines(info.pipeline);
+            
+            info.pipeline = glGenProgramPipelines();
+            glUseProgramStages(info.pipeline, GL_VERTEX_SHADER_BIT, vertexProgram);
+            glUseProgramStages(info.pipeline, GL_FRAGMENT_SHADER_BIT, fragmentProgram);
+            
+            info.vertexShader ^= vertexProgram;
+            vertexProgram ^= info.vertexShader;
+            info.vertexShader ^= vertexProgram;
+            
+            info.fragmentShader ^= fragmentProgram;
+            fragmentProgram ^= info.fragmentShader;
+            info.fragmentShader ^= fragmentProgram;
+            
+            onReloaded();
+        } finally {
+            glDeleteProgram(vertexProgram);
+            glDeleteProgram(fragmentProgram);
+        }
+    }
+    
+    private int PLAYER_BLOCK_UNIFORM_LOCATION;
+    private int PLAYER_SUB_BLOCK_UNIFORM_LOCATION;
+    private int PROJECTION_MATRIX_UNIFORM_LOCATION;
+    private int IMPOSTOR_CENTER_UNIFORM_LOCATION;
+    private int IMPOSTOR_HALF_SIZE_UNIFORM_LOCATION;
+    private int IMPOSTOR_TILE_ORIGIN_UNIFORM_LOCATION;
+    private int IMPOSTOR_TILE_SIZE_UNIFORM_LOCATION;
+    private int IMPOSTOR_VIEW_COUNT_UNIFORM_LOCATION;
+    private int DYNAMIC_MATRICES_UNIFORM_LOCATION;
+    private int DYNAMIC_LIGHTS_UNIFORM_LOCATION;
+    
+    private int FOG_START_END_UNIFORM_LOCATION;
+    private int FOG_COLOR_UNIFORM_LOCATION;
+    private int IMPOSTOR_ATLAS_UNIFORM_LOCATION;
+    private int LIGHTMAP_TEXTURE_UNIFORM_LOCATION;
+    
+    private void onReloaded() {
+        PLAYER_BLOCK_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "playerBlock");
+        PLAYER_SUB_BLOCK_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "playerSubBlock");
+        PROJECTION_MATRIX_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "projectionMatrix");
+        IMPOSTOR_CENTER_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "impostorCenter");
+        IMPOSTOR_HALF_SIZE_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "impostorHalfSize");
+        IMPOSTOR_TILE_ORIGIN_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "impostorTileOrigin");
+        IMPOSTOR_TILE_SIZE_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "impostorTileSize");
+        IMPOSTOR_VIEW_COUNT_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "impostorViewCount");
+        if (!SSBO) {
+            DYNAMIC_MATRICES_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "dynamicMatrices");
+            DYNAMIC_LIGHTS_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "dynamicLights");
+        }
+        
+        FOG_START_END_UNIFORM_LOCATION = glGetUniformLocation(info.fragmentShader, "fogStartEnd");
+        FOG_COLOR_UNIFORM_LOCATION = glGetUniformLocation(info.fragmentShader, "fogColor");
+        IMPOSTOR_ATLAS_UNIFORM_LOCATION = glGetUniformLocation(info.fragmentShader, "impostorAtlas");
+        LIGHTMAP_TEXTURE_UNIFORM_LOCATION = glGetUniformLocation(info.fragmentShader, "lightmapTexture");
+        
+        if (!SSBO) {
+            glProgramUniform1i(info.vertexShader, DYNAMIC_MATRICES_UNIFORM_LOCATION, MagicNumbers.GL.DYNAMIC_MATRIX_TEXTURE_UNIT);
+            glProgramUniform1i(info.vertexShader, DYNAMIC_LIGHTS_UNIFORM_LOCATION, MagicNumbers.GL.DYNAMIC_LIGHT_TEXTURE_UNIT);
+        }
+        glProgramUniform2f(info.vertexShader, IMPOSTOR_TILE_SIZE_UNIFORM_LOCATION, GLImpostorAtlas.TILE_UV_SIZE, GLImpostorAtlas.TILE_UV_SIZE);
+        glProgramUniform1i(info.vertexShader, IMPOSTOR_VIEW_COUNT_UNIFORM_LOCATION, GLImpostorAtlas.VIEW_COUNT);
+        
+        // the atlas is bound in place of the block atlas
+        glProgramUniform1i(info.fragmentShader, IMPOSTOR_ATLAS_UNIFORM_LOCATION, MagicNumbers.GL.ATLAS_TEXTURE_UNIT);
+        glProgramUniform1i(info.fragmentShader, LIGHTMAP_TEXTURE_UNIFORM_LOCATION, MagicNumbers.GL.LIGHTMAP_TEXTURE_UNIT);
+    }
+    
+    public void setupDrawInfo(DrawInfo drawInfo) {
+        glProgramUniformMatrix4fv(info.vertexShader, PROJECTION_MATRIX_UNIFORM_LOCATION, false, drawInfo.projectionMatrixFloatBuffer);
+        glProgramUniform3i(info.vertexShader, PLAYER_BLOCK_UNIFORM_LOCATION, drawInfo.playerPosition.x, drawInfo.playerPosition.y, drawInfo.playerPosition.z);
+        glProgramUniform3f(info.vertexShader, PLAYER_SUB_BLOCK_UNIFORM_LOCATION, drawInfo.playerSubBlock.x, drawInfo.playerSubBlock.y, drawInfo.playerSubBlock.z);
+        
+        glProgramUniform2f(info.fragmentShader, FOG_START_END_UNIFORM_LOCATION, drawInfo.fogStart, drawInfo.fogEnd);
+        glProgramUniform4f(info.fragmentShader, FOG_COLOR_UNIFORM_LOCATION, drawInfo.fogColor.x, drawInfo.fogColor.y, drawInfo.fogColor.z, 1);
+    }
+    
+    /**
+     * Binds the pipeline, the main program's binds must be reset after, as this replaces its pipeline
+     */
+    public void bind() {
+        glBindProgramPipeline(info.pipeline);
+    }
+    
+    public void setupImpostor(GLImpostorAtlas.Impostor impostor) {
+        glProgramUniform3f(info.vertexShader, IMPOSTOR_CENTER_UNIFORM_LOCATION, impostor.center.x, impostor.center.y, impostor.center.z);
+        glProgramUniform2f(info.vertexShader, IMPOSTOR_HALF_SIZE_UNIFORM_LOCATION, impostor.halfSize.x, impostor.halfSize.y);
+        glProgramUniform2f(info.vertexShader, IMPOSTOR_TILE_ORIGIN_UNIFORM_LOCATION, impostor.tileU(), impostor.tileV());
+    }
+}
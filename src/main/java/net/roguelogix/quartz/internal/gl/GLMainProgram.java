@@ -6,6 +6,7 @@ import net.roguelogix.quartz.Quartz;
 import net.roguelogix.quartz.internal.MagicNumbers;
 import net.roguelogix.quartz.internal.QuartzCore;
 import net.roguelogix.quartz.internal.common.DrawInfo;
+import net.roguelogix.quartz.internal.common.VertexLayout;
 import net.roguelogix.phosphophyllite.util.Util;
 
 import static net.roguelogix.quartz.internal.gl.GLCore.SSBO_VERTEX_BLOCK_LIMIT;
@@ -128,6 +129,7 @@ public class GLMainProgram {
     private int PROJECTION_MATRIX_UNIFORM_LOCATION;
     private int VERT_QUAD_UNIFORM_LOCATION;
     private int VERT_LIGHTING_UNIFORM_LOCATION;
+    private int POSITION_SCALE_UNIFORM_LOCATION;
     private int DYNAMIC_MATRICES_UNIFORM_LOCATION;
     private int DYNAMIC_LIGHTS_UNIFORM_LOCATION;
     
@@ -153,6 +155,7 @@ public class GLMainProgram {
         PROJECTION_MATRIX_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "projectionMatrix");
         VERT_QUAD_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "QUAD");
         VERT_LIGHTING_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "LIGHTING");
+        POSITION_SCALE_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "positionScale");
         if (!SSBO) {
             DYNAMIC_MATRICES_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "dynamicMatrices");
             DYNAMIC_LIGHTS_UNIFORM_LOCATION = glGetUniformLocation(info.vertexShader, "dynamicLights");
@@ -228,6 +231,10 @@ public class GLMainProgram {
         }
     }
     
+    public void setupVertexLayout(VertexLayout layout) {
+        glProgramUniform1f(info.vertexShader, POSITION_SCALE_UNIFORM_LOCATION, layout.positionScale);
+    }
+    
     public void resetBinds() {
         currentPipeline = 0;
         glBindProgramPipeline(0);
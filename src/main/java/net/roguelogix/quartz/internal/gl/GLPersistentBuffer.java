@@ -0,0 +1,148 @@
+package net.roguelogix.quartz.internal.gl;
+
+import net.roguelogix.phosphophyllite.util.NonnullDefault;
+import net.roguelogix.quartz.internal.QuartzCore;
+import net.roguelogix.quartz.internal.common.B3DStateHelper;
+import net.roguelogix.quartz.internal.common.DirtyPageTracker;
+import org.lwjgl.system.libc.LibCString;
+
+import static org.lwjgl.opengl.ARBBufferStorage.*;
+import static org.lwjgl.opengl.GL33C.*;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+
+/**
+ * Buffer backed by a ring of persistently mapped, immutable storage GL buffers
+ * each flush moves to the next buffer in the ring and writes the dirty ranges straight into its mapping, no driver side upload
+ * a fence guards each buffer, so nothing is written to while the GPU may still be reading from it
+ * <p>
+ * handle() and region() change at every flush that has something to write, GPU realloc callbacks are only fired when the ring is recreated
+ */
+@NonnullDefault
+public class GLPersistentBuffer extends GLBuffer {
+    
+    private static final int STORAGE_FLAGS = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+    // 1ms
+    private static final long FENCE_WAIT_TIMEOUT_NANOS = 1_000_000;
+    
+    private final int regionCount;
+    private final int[] regionBuffers;
+    private final long[] regionAddresses;
+    private final long[] regionFences;
+    // everything written to the CPU side buffer since the region was last written to
+    private final DirtyPageTracker[] regionDirtyPages;
+    private int currentRegion = 0;
+    
+    public GLPersistentBuffer(int initialSize) {
+        super(initialSize, 0);
+        regionCount = GLConfig.INSTANCE.PERSISTENT_BUFFER_FRAMES;
+        regionBuffers = new int[regionCount];
+        regionAddresses = new long[regionCount];
+        regionFences = new long[regionCount];
+        regionDirtyPages = new DirtyPageTracker[regionCount];
+        for (int i = 0; i < regionCount; i++) {
+            regionDirtyPages[i] = new DirtyPageTracker(GLConfig.INSTANCE.BUFFER_DIRTY_PAGE_SIZE);
+        }
+        createRegions();
+        final var regionBuffers = this.regionBuffers;
+        final var regionFences = this.regionFences;
+        QuartzCore.CLEANER.register(this, () -> QuartzCore.deletionQueue.enqueue(() -> deleteRegions(regionBuffers, regionFences)));
+    }
+    
+    private void createRegions() {
+        final int size = size();
+        for (int i = 0; i < regionCount; i++) {
+            final int buffer = glGenBuffers();
+            B3DStateHelper.bindArrayBuffer(buffer);
+            glBufferStorage(GL_ARRAY_BUFFER, size, STORAGE_FLAGS);
+            final var mapping = glMapBufferRange(GL_ARRAY_BUFFER, 0, size, STORAGE_FLAGS);
+            if (mapping == null) {
+                throw new IllegalStateException("Failed to persistently map GL buffer");
+            }
+            regionBuffers[i] = buffer;
+            regionAddresses[i] = memAddress(mapping);
+            // fresh storage, so the entire thing needs to be written before its used
+            regionDirtyPages[i].resize(size);
+            regionDirtyPages[i].markAll();
+        }
+    }
+    
+    private static void deleteRegions(int[] regionBuffers, long[] regionFences) {
+        for (int i = 0; i < regionBuffers.length; i++) {
+            if (regionFences[i] != 0) {
+                glDeleteSync(regionFences[i]);
+                regionFences[i] = 0;
+            }
+            // deleting a buffer unmaps it, and GL defers the actual delete until the GPU is done with it
+            glDeleteBuffers(regionBuffers[i]);
+            regionBuffers[i] = 0;
+        }
+    }
+    
+    @Override
+    protected void resizeGPUStorage(int oldSize) {
+        // immutable storage cant be resized, so the whole ring is recreated
+        deleteRegions(regionBuffers, regionFences);
+        createRegions();
+        // new regions are marked fully dirty already
+        dirtyPages.clear();
+        currentRegion = 0;
+        gpuRealloced();
+    }
+    
+    @Override
+    public void flush() {
+        if (dirtyPages.isClean() && regionDirtyPages[currentRegion].isClean()) {
+            // current region is up to date, nothing to write
+            return;
+        }
+        // every region needs to see these writes, the current one is written now, the rest when they come back around
+        dirtyPages.drain(0, (offset, size) -> {
+            for (int i = 0; i < regionCount; i++) {
+                regionDirtyPages[i].markRange(offset, offset + size);
+            }
+        });
+        
+        // everything reading the current region has been submitted by now
+        regionFences[currentRegion] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        currentRegion = (currentRegion + 1) % regionCount;
+        waitForRegion(currentRegion);
+        
+        final long srcAddress = cpuAddress();
+        final long dstAddress = regionAddresses[currentRegion];
+        regionDirtyPages[currentRegion].drain(GLConfig.INSTANCE.BUFFER_UPLOAD_MERGE_GAP, (offset, size) -> LibCString.nmemcpy(dstAddress + offset, srcAddress + offset, size));
+    }
+    
+    private void waitForRegion(int region) {
+        final long fence = regionFences[region];
+        if (fence == 0) {
+            return;
+        }
+        int waitResult = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_WAIT_TIMEOUT_NANOS);
+        while (waitResult == GL_TIMEOUT_EXPIRED) {
+            // commands were flushed by the first wait
+            waitResult = glClientWaitSync(fence, 0, FENCE_WAIT_TIMEOUT_NANOS);
+        }
+        glDeleteSync(fence);
+        regionFences[region] = 0;
+    }
+    
+    @Override
+    public int handle() {
+        return regionBuffers[currentRegion];
+    }
+    
+    @Override
+    public int regionCount() {
+        return regionCount;
+    }
+    
+    @Override
+    public int region() {
+        return currentRegion;
+    }
+    
+    @Override
+    public int regionHandle(int region) {
+        return regionBuffers[region];
+    }
+}
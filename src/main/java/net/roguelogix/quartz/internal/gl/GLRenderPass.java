@@ -12,7 +12,7 @@ import net.roguelogix.quartz.internal.common.ShaderInfo;
 
 import javax.annotation.Nullable;
 
-import static org.lwjgl.opengl.GL32C.GL_LINE;
+import static org.lwjgl.opengl.GL32C.GL_LINES;
 import static org.lwjgl.opengl.GL32C.GL_TRIANGLES;
 
 @NonnullDefault
@@ -81,7 +81,7 @@ public class GLRenderPass {
             default -> throw new IllegalArgumentException("Unsupported primitive type");
         };
         GL_MODE = switch (renderType.mode()) {
-            case LINES -> GL_LINE;
+            case LINES -> GL_LINES;
             case TRIANGLES, QUADS -> GL_TRIANGLES; // quads too, because element buffer
             default -> throw new IllegalArgumentException("Unsupported primitive type");
         };
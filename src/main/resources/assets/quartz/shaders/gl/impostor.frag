@@ -0,0 +1,36 @@
+#version 150 core
+// shader loader inserts #defines between the version and this line
+#line 3
+// gpuinfo says this is supported, so im using it
+#extension GL_ARB_separate_shader_objects : require
+#extension GL_ARB_explicit_attrib_location : require
+
+layout(location = 0) in float fragmentDistance;
+layout(location = 1) in vec2 texCoord;
+layout(location = 2) flat in vec2 lightmapCoord;
+
+uniform vec2 fogStartEnd;
+uniform vec4 fogColor;
+
+uniform sampler2D impostorAtlas;
+uniform sampler2D lightmapTexture;
+
+layout(location = 0) out vec4 color;
+
+void main(){
+    color = texture(impostorAtlas, texCoord);
+
+    // around the mesh is cleared to transparent
+    #ifndef MIN_ALPHA
+    #define MIN_ALPHA 0.5
+    #endif
+    if (color.a < MIN_ALPHA){
+        discard;
+    }
+
+    // captured without lighting, so its only applied here
+    color *= texture(lightmapTexture, clamp(lightmapCoord, vec2(0.5 / 16), vec2(15.5 / 16)));
+
+    float fogValue = clamp(smoothstep(fogStartEnd.x, fogStartEnd.y, fragmentDistance) * fogColor.a, 0.0, 1.0);
+    color = vec4(mix(color.rgb, fogColor.rgb, fogValue), color.a);
+}
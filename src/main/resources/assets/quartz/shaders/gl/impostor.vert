@@ -0,0 +1,138 @@
+#version 150 core
+// shader loader inserts #defines between the version and this line
+#line 3
+// gpuinfo says this is supported, so im using it
+#extension GL_ARB_separate_shader_objects : require
+#extension GL_ARB_explicit_attrib_location : require
+#ifdef USE_SSBO
+#extension GL_ARB_shader_storage_buffer_object : require
+#endif
+
+#ifndef WORLD_POSITION_LOCATION
+#define WORLD_POSITION_LOCATION 4
+#define DYNAMIC_MATRIX_ID_LOCATION 5
+#define DYNAMIC_LIGHT_ID_LOCATION 6
+#define STATIC_MATRIX_LOCATION 8
+#endif
+
+// per instance, same instance data as the main program, there are no per vertex attributes, corners come from gl_VertexID
+layout(location = WORLD_POSITION_LOCATION) in ivec3 worldPosition;
+layout(location = DYNAMIC_MATRIX_ID_LOCATION) in int dynamicMatrixID;
+layout(location = DYNAMIC_LIGHT_ID_LOCATION) in int dynamicLightID;
+layout(location = STATIC_MATRIX_LOCATION) in mat4 staticMatrix;
+
+uniform ivec3 playerBlock;
+uniform vec3 playerSubBlock;
+uniform mat4 projectionMatrix;
+
+// model space center of the mesh, and half the width and height of its views
+uniform vec3 impostorCenter;
+uniform vec2 impostorHalfSize;
+// atlas UV of the first view, the rest follow it along U
+uniform vec2 impostorTileOrigin;
+uniform vec2 impostorTileSize;
+uniform int impostorViewCount;
+
+#ifndef USE_SSBO
+uniform samplerBuffer dynamicMatrices;
+uniform usamplerBuffer dynamicLights;
+#else
+
+struct DynamicMatrixPair {
+    mat4 modelMatrix;
+    mat4 normalMatrix;
+};
+
+layout(std430, binding = 0) buffer dynamicMatrixBuffer {
+    DynamicMatrixPair dynamicMatrices[];
+};
+
+struct DynamicLightInfo {
+// opengl doesnt support smaller types than this, unfortunately
+    uint lightingInfo[32];
+};
+
+layout(std430, binding = 1) buffer dynamicLightBuffer {
+    DynamicLightInfo dynamicLights[];
+};
+
+#endif
+
+layout(location = 0) out float vertexDistance;
+layout(location = 1) out vec2 texCoord;
+#define LIGHTMAP_MULTIPLIER 0.015625 /* 1 / 64 (6 bit) */
+layout(location = 2) flat out vec2 lightmapCoord;
+
+out gl_PerVertex
+{
+    vec4 gl_Position;
+};
+
+#define TAU 6.28318530718
+
+// two triangles, counter clockwise facing the camera
+const vec2 corners[6] = vec2[6](vec2(-1, -1), vec2(1, -1), vec2(1, 1), vec2(1, 1), vec2(-1, 1), vec2(-1, -1));
+
+float cylindrical_distance(vec3 cameraRelativePos);
+
+void main() {
+
+    mat4 dynamicModelMatrix = mat4(0);
+    #ifndef USE_SSBO
+    dynamicModelMatrix[0] = texelFetch(dynamicMatrices, dynamicMatrixID * 8 + 0);
+    dynamicModelMatrix[1] = texelFetch(dynamicMatrices, dynamicMatrixID * 8 + 1);
+    dynamicModelMatrix[2] = texelFetch(dynamicMatrices, dynamicMatrixID * 8 + 2);
+    dynamicModelMatrix[3] = texelFetch(dynamicMatrices, dynamicMatrixID * 8 + 3);
+    #else
+    dynamicModelMatrix = dynamicMatrices[dynamicMatrixID].modelMatrix;
+    #endif
+
+    vec3 floatWorldPosition = vec3(worldPosition - playerBlock) - playerSubBlock;
+
+    mat4 modelMatrix = dynamicModelMatrix * staticMatrix;
+    mat3 modelRotation = mat3(modelMatrix);
+
+    vec3 center = (modelMatrix * vec4(impostorCenter, 1.0)).xyz + floatWorldPosition;
+
+    // views were captured around the model's Y axis, the camera is at the origin
+    vec3 toCamera = inverse(modelRotation) * -center;
+    float angle = atan(toCamera.x, toCamera.z);
+    int view = min(int(fract(angle / TAU + 0.5 / impostorViewCount) * impostorViewCount), impostorViewCount - 1);
+
+    // the quad turns to face the camera exactly, only the picture on it is from the nearest view
+    vec3 right = modelRotation * vec3(cos(angle), 0, -sin(angle));
+    vec3 up = modelRotation * vec3(0, 1, 0);
+    vec2 corner = corners[gl_VertexID];
+
+    vec3 vertexPosition = center + right * corner.x * impostorHalfSize.x + up * corner.y * impostorHalfSize.y;
+    vertexDistance = cylindrical_distance(vertexPosition);
+    gl_Position = projectionMatrix * vec4(vertexPosition, 1.0);
+
+    texCoord = impostorTileOrigin + (vec2(view, 0) + corner * 0.5 + 0.5) * impostorTileSize;
+
+    // brightest direction of each corner, averaged, there are no normals to weight directions by
+    vec2 light = vec2(0);
+    for (int i = 0; i < 8; i++) {
+        vec2 cornerLight = vec2(0);
+        #ifndef USE_SSBO
+        for (int j = 0; j < 6; j++) {
+            cornerLight = max(cornerLight, vec2(texelFetch(dynamicLights, dynamicLightID * 64 + i * 6 + j).rg & 0x3Fu));
+        }
+        #else
+        for (int j = 0; j < 3; j++) {
+            // each int packs two directions, because its 16 bit info
+            uint lightInt = dynamicLights[dynamicLightID].lightingInfo[i * 3 + j];
+            cornerLight = max(cornerLight, vec2(lightInt & 0x3Fu, lightInt >> 8 & 0x3Fu));
+            cornerLight = max(cornerLight, vec2(lightInt >> 16 & 0x3Fu, lightInt >> 24 & 0x3Fu));
+        }
+        #endif
+        light += cornerLight;
+    }
+    lightmapCoord = light * (LIGHTMAP_MULTIPLIER / 8);
+}
+
+float cylindrical_distance(vec3 cameraRelativePos) {
+    float distXZ = length(cameraRelativePos.xz);
+    float distY = abs(cameraRelativePos.y);
+    return max(distXZ, distY);
+}
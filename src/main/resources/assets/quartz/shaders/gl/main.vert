@@ -25,6 +25,7 @@
 #endif
 
 // per vertex
+// compact layout positions are integers, scaled back to blocks by positionScale
 layout(location = POSITION_LOCATION) in vec3 position;
 layout(location = COLOR_LOCATION) in int colorIn;
 layout(location = TEX_COORD_LOCATION) in vec2 texCoordIn;
@@ -43,6 +44,7 @@ uniform mat4 projectionMatrix;
 
 uniform bool LIGHTING;
 uniform bool QUAD;
+uniform float positionScale;
 
 #ifndef USE_SSBO
 uniform samplerBuffer dynamicMatrices;
@@ -133,7 +135,7 @@ void main() {
 
     mat4 modelMatrix = dynamicModelMatrix * staticMatrix;
 
-    vec4 vertexPosition = modelMatrix * vec4(position, 1.0);
+    vec4 vertexPosition = modelMatrix * vec4(position * positionScale, 1.0);
     vertexModelPos.xyz = vertexPosition.xyz;
     vertexPosition += vec4(floatWorldPosition, 0);
     vertexDistance = cylindrical_distance(vertexPosition.xyz);
@@ -0,0 +1,55 @@
+package net.roguelogix.quartz.internal.common;
+
+import net.roguelogix.quartz.internal.gl.GLConfig;
+
+import static net.roguelogix.quartz.internal.MagicNumbers.GL.INSTANCE_DATA_BYTE_SIZE;
+
+/**
+ * Checks that the bytes uploaded for a createInstance stay at a single instance record with 10 to 100k instances already in the batch
+ * the instance buffer is tracked the way GLBuffer tracks it, so a regression to uploading the whole buffer shows up here
+ * <p>
+ * standalone, doesnt need GL or a running game, throws if the upload grows with the instance count
+ */
+public class InstanceUploadCheck {
+    
+    private static final int[] INSTANCE_COUNTS = {10, 1_000, 100_000};
+    
+    public static void main(String[] args) {
+        final int pageSize = new DirtyPageTracker(GLConfig.INSTANCE.BUFFER_DIRTY_PAGE_SIZE).pageSize();
+        // a record can straddle a page boundary, so it may touch one more page than it covers
+        final int recordBound = ((INSTANCE_DATA_BYTE_SIZE + pageSize - 1) / pageSize + 1) * pageSize;
+        long firstUploaded = -1;
+        for (int instanceCount : INSTANCE_COUNTS) {
+            final long uploaded = uploadedForCreate(instanceCount);
+            System.out.printf("%7d instances: %d bytes uploaded per createInstance%n", instanceCount, uploaded);
+            if (uploaded > recordBound) {
+                throw new IllegalStateException("createInstance uploaded " + uploaded + " bytes with " + instanceCount + " instances, a record needs at most " + recordBound);
+            }
+            if (firstUploaded != -1 && uploaded != firstUploaded) {
+                throw new IllegalStateException("createInstance upload grew with the instance count, " + firstUploaded + " bytes to " + uploaded);
+            }
+            firstUploaded = uploaded;
+        }
+    }
+    
+    /**
+     * @return bytes drained for the instance created after instanceCount others
+     */
+    private static long uploadedForCreate(int instanceCount) {
+        final var dirtyPages = new DirtyPageTracker(GLConfig.INSTANCE.BUFFER_DIRTY_PAGE_SIZE);
+        // the buffer grows in powers of two, as GLBuffer does
+        final int bufferSize = Integer.highestOneBit((instanceCount + 1) * INSTANCE_DATA_BYTE_SIZE - 1) << 1;
+        dirtyPages.resize(bufferSize);
+        for (int i = 0; i < instanceCount; i++) {
+            dirtyPages.markRange(i * INSTANCE_DATA_BYTE_SIZE, (i + 1) * INSTANCE_DATA_BYTE_SIZE);
+        }
+        // earlier instances were uploaded by earlier frames
+        dirtyPages.drain(GLConfig.INSTANCE.BUFFER_UPLOAD_MERGE_GAP, (offset, size) -> {
+        });
+        final int recordOffset = instanceCount * INSTANCE_DATA_BYTE_SIZE;
+        dirtyPages.markRange(recordOffset, recordOffset + INSTANCE_DATA_BYTE_SIZE);
+        final long[] uploaded = new long[1];
+        dirtyPages.drain(GLConfig.INSTANCE.BUFFER_UPLOAD_MERGE_GAP, (offset, size) -> uploaded[0] += size);
+        return uploaded[0];
+    }
+}
@@ -0,0 +1,63 @@
+package net.roguelogix.quartz.internal.common;
+
+import java.lang.ref.WeakReference;
+import java.util.Random;
+
+/**
+ * Times Manager.getMeshInfo with 100 to 100k live meshes, the cost per lookup should stay flat as the count grows
+ * apart from cache misses, once the meshes no longer fit in cache
+ * <p>
+ * standalone, doesnt need GL or a running game, meshes are tracked by hand instead of through createMesh, as that registers with QuartzCore
+ */
+public class MeshLookupBenchmark {
+    
+    private static final int[] MESH_COUNTS = {100, 1_000, 10_000, 100_000};
+    private static final int LOOKUPS = 10_000_000;
+    private static final int WARMUP_ROUNDS = 3;
+    
+    public static void main(String[] args) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int meshCount : MESH_COUNTS) {
+                run(meshCount);
+            }
+        }
+        for (int meshCount : MESH_COUNTS) {
+            System.out.printf("%7d meshes: %.2f ns per lookup%n", meshCount, run(meshCount));
+        }
+    }
+    
+    /**
+     * @return average nanoseconds per lookup
+     */
+    private static double run(int meshCount) {
+        final var manager = new InternalMesh.Manager(size -> {
+            throw new IllegalStateException("nothing is built");
+        });
+        final var meshes = new InternalMesh[meshCount];
+        final var trackedMeshes = new InternalMesh.Manager.TrackedMesh[meshCount];
+        for (int i = 0; i < meshCount; i++) {
+            meshes[i] = new InternalMesh(builder -> {
+            });
+            trackedMeshes[i] = new InternalMesh.Manager.TrackedMesh(new WeakReference<>(meshes[i]), manager, null, false);
+            meshes[i].trackedMesh = trackedMeshes[i];
+        }
+        // random order, so the lookups arent helped by walking memory in order
+        final var order = new int[LOOKUPS];
+        final var random = new Random(meshCount);
+        for (int i = 0; i < order.length; i++) {
+            order[i] = random.nextInt(meshCount);
+        }
+        int found = 0;
+        final long start = System.nanoTime();
+        for (int index : order) {
+            if (manager.getMeshInfo(meshes[index]) == trackedMeshes[index]) {
+                found++;
+            }
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (found != LOOKUPS) {
+            throw new IllegalStateException("Lookup returned the wrong mesh info");
+        }
+        return (double) elapsed / LOOKUPS;
+    }
+}